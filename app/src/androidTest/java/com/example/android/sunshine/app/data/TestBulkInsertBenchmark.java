@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Inserts the same rows into the weather table with SQLiteDatabase.insert and with
+    BulkInsertStatement, and writes how long each took to the log under LOG_TAG.  The larger
+    sizes are spread over several locations, like an import of every stored location.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final String BENCHMARK_DB = "bulk_insert_benchmark.db";
+    private static final int MAX_DAYS_PER_LOCATION = 1000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DB);
+        mDb = new WeatherDbHelper(mContext, BENCHMARK_DB).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(BENCHMARK_DB);
+        super.tearDown();
+    }
+
+    private static ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = TestUtilities.createWeatherValues(1 + i / MAX_DAYS_PER_LOCATION);
+            rows[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (i % MAX_DAYS_PER_LOCATION) * DAY_IN_MILLIS);
+        }
+        return rows;
+    }
+
+    private long insertWithContentValues(ContentValues[] rows) {
+        long start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, row) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private long insertWithStatement(ContentValues[] rows) {
+        long start = SystemClock.elapsedRealtime();
+        BulkInsertStatement insert = new BulkInsertStatement(mDb, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOC_KEY,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES);
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                assertTrue(insert.insert(row) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private void benchmark(int count) {
+        ContentValues[] rows = createRows(count);
+
+        long contentValuesMillis = insertWithContentValues(rows);
+        assertEquals(count, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        long statementMillis = insertWithStatement(rows);
+        assertEquals("Error: The compiled statement didn't insert every row",
+                count, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        Log.i(LOG_TAG, count + " rows: " + contentValuesMillis + "ms with insert(), "
+                + statementMillis + "ms with a compiled statement");
+    }
+
+    public void testBulkInsert14() {
+        benchmark(14);
+    }
+
+    public void testBulkInsert1000() {
+        benchmark(1000);
+    }
+
+    public void testBulkInsert100000() {
+        benchmark(100000);
+    }
+}
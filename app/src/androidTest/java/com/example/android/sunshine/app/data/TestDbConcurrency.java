@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Checks that the forecast list keeps loading while a sync writes, and writes the list's load
+    latency during the write to the log under LOG_TAG.
+ */
+public class TestDbConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    private static final String LIST_LOCATION = "99705";
+    private static final String WRITE_LOCATION = "94043";
+    // Far more than any sync writes, so the write lasts long enough to read through
+    private static final int WRITE_DAYS = 20000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: The database should be using write-ahead logging",
+                dbHelper.isWriteAheadLogging());
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        dbHelper.close();
+    }
+
+    public void testListLoadsDuringLargeWrite() throws InterruptedException {
+        long listLocationId = TestUtilities.insertLocation(mContext, LIST_LOCATION);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createDays(listLocationId, TestUtilities.TEST_DATE, 14));
+        final ContentValues[] writeDays = TestUtilities.createDays(
+                TestUtilities.insertLocation(mContext, WRITE_LOCATION), TestUtilities.TEST_DATE,
+                WRITE_DAYS);
+
+        final long[] writeMillis = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, writeDays);
+                writeMillis[0] = SystemClock.elapsedRealtime() - start;
+            }
+        });
+        writer.start();
+
+        // Load the list the way ForecastFragment's loader does, for as long as the write lasts
+        List<Long> latencies = new ArrayList<Long>();
+        while (writer.isAlive()) {
+            // Otherwise every load after the first is answered from memory, not the database
+            WeatherQueryCache.invalidate();
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(LIST_LOCATION,
+                            TestUtilities.TEST_DATE),
+                    null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(14, cursor.getCount());
+            cursor.close();
+            latencies.add(SystemClock.elapsedRealtime() - start);
+        }
+        writer.join();
+
+        Collections.sort(latencies);
+        long maxLatency = latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1);
+        Log.i(LOG_TAG, WRITE_DAYS + " days written in " + writeMillis[0] + "ms, "
+                + latencies.size() + " list loads meanwhile, median "
+                + (latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2))
+                + "ms, max " + maxLatency + "ms");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertTrue("Error: The list should have loaded more than once during the write",
+                    latencies.size() > 1);
+            assertTrue("Error: A list load waited " + maxLatency + "ms on a " + writeMillis[0]
+                    + "ms write", maxLatency < writeMillis[0] / 2);
+        }
+    }
+}
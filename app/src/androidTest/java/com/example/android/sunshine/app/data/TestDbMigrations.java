@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    Builds populated databases with the schema of each past version, exactly as those versions
+    of the app created them, and checks that opening them upgrades them to the schema a fresh
+    install gets without losing their rows.  When you bump DATABASE_VERSION, add the schema of
+    the version you are leaving to SCHEMAS.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String MIGRATED_DB = "migration_test.db";
+    private static final String FRESH_DB = "migration_fresh.db";
+
+    private static final String CREATE_LOCATION_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL );";
+
+    private static final String CREATE_WEATHER_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String CREATE_SYNC_METRICS_V3 = "CREATE TABLE sync_metrics (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "start_time INTEGER NOT NULL, " +
+            "app_version INTEGER NOT NULL, " +
+            "status INTEGER NOT NULL, " +
+            "locations INTEGER NOT NULL, " +
+            "bytes_read INTEGER NOT NULL, " +
+            "connect_time INTEGER NOT NULL, " +
+            "first_byte_time INTEGER NOT NULL, " +
+            "download_time INTEGER NOT NULL, " +
+            "parse_time INTEGER NOT NULL, " +
+            "db_time INTEGER NOT NULL, " +
+            "fan_out_time INTEGER NOT NULL DEFAULT -1 );";
+
+    private static final String CREATE_HOURLY_V4 = "CREATE TABLE hourly (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_id INTEGER NOT NULL, " +
+            "epoch_hour INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, " +
+            "temp INTEGER NOT NULL, " +
+            "pressure INTEGER NOT NULL, " +
+            "humidity INTEGER NOT NULL, " +
+            "wind INTEGER NOT NULL, " +
+            "degrees INTEGER NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (location_id, epoch_hour) ON CONFLICT REPLACE);";
+
+    // The schema of every past version, indexed by version.  Never change one of these.
+    private static final String[][] SCHEMAS = {
+            null,
+            null,
+            {CREATE_LOCATION_V2, CREATE_WEATHER_V2},
+            {CREATE_LOCATION_V2, CREATE_WEATHER_V2, CREATE_SYNC_METRICS_V3},
+            {CREATE_LOCATION_V2, CREATE_WEATHER_V2, CREATE_SYNC_METRICS_V3, CREATE_HOURLY_V4},
+    };
+
+    private static final int LOCATION_ROWS = 3;
+    private static final int DAYS = 14;
+
+    private void deleteTheDatabases() {
+        mContext.deleteDatabase(MIGRATED_DB);
+        mContext.deleteDatabase(FRESH_DB);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTheDatabases();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTheDatabases();
+        super.tearDown();
+    }
+
+    /*
+        Creates MIGRATED_DB the way the given version of the app did, with a few locations of
+        forecast in it, and leaves it closed.
+     */
+    private void createPastDatabase(int version, int daysPerLocation) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DB, Context.MODE_PRIVATE, null);
+        db.beginTransaction();
+        try {
+            for (String sql : SCHEMAS[version]) {
+                db.execSQL(sql);
+            }
+            for (int location = 1; location <= LOCATION_ROWS; location++) {
+                db.execSQL("INSERT INTO location VALUES (?, ?, 'North Pole', 64.7488, -147.353)",
+                        new Object[]{location, "9970" + location});
+                for (int day = 0; day < daysPerLocation; day++) {
+                    db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, "
+                                    + "min, max, humidity, pressure, wind, degrees) "
+                                    + "VALUES (?, ?, 'Asteroids', 321, 65, 75, 1.2, 1.3, 5.5, 1.1)",
+                            new Object[]{location, 1419033600000L + day * 86400000L});
+                }
+            }
+            if (version >= 3) {
+                db.execSQL("INSERT INTO sync_metrics (start_time, app_version, status, locations, "
+                        + "bytes_read, connect_time, first_byte_time, download_time, parse_time, "
+                        + "db_time) VALUES (1419033600000, 1, 0, 1, 1500, 40, 120, 30, 5, 10)");
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    /*
+        The columns and indexes of every table, so two schemas can be compared however their
+        CREATE statements were written.
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new TreeMap<String, String>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' "
+                + "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (tables.moveToNext()) {
+            String table = tables.getString(0);
+            StringBuilder description = new StringBuilder();
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                description.append(columns.getString(columns.getColumnIndex("name"))).append(' ')
+                        .append(columns.getString(columns.getColumnIndex("type"))).append(' ')
+                        .append(columns.getInt(columns.getColumnIndex("notnull"))).append(' ')
+                        .append(columns.getString(columns.getColumnIndex("dflt_value"))).append(' ')
+                        .append(columns.getInt(columns.getColumnIndex("pk"))).append("; ");
+            }
+            columns.close();
+            // The order of the indexes depends on how the table was built, but what they cover
+            // is what matters
+            List<String> indexDescriptions = new ArrayList<String>();
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                StringBuilder index = new StringBuilder(
+                        indexes.getInt(indexes.getColumnIndex("unique")) != 0 ? "unique (" : "(");
+                Cursor indexColumns = db.rawQuery("PRAGMA index_info("
+                        + indexes.getString(indexes.getColumnIndex("name")) + ")", null);
+                while (indexColumns.moveToNext()) {
+                    index.append(indexColumns.getString(indexColumns.getColumnIndex("name")))
+                            .append(indexColumns.isLast() ? "" : ", ");
+                }
+                indexColumns.close();
+                indexDescriptions.add(index.append(')').toString());
+            }
+            indexes.close();
+            Collections.sort(indexDescriptions);
+            description.append(indexDescriptions);
+            schema.put(table, description.toString());
+        }
+        tables.close();
+        return schema;
+    }
+
+    private Map<String, String> readFreshSchema() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext, FRESH_DB).getReadableDatabase();
+        Map<String, String> schema = readSchema(db);
+        db.close();
+        return schema;
+    }
+
+    public void testUpgradeFromEachPastVersion() {
+        Map<String, String> freshSchema = readFreshSchema();
+        for (int version = 2; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(MIGRATED_DB);
+            createPastDatabase(version, DAYS);
+
+            SQLiteDatabase db = new WeatherDbHelper(mContext, MIGRATED_DB).getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: The schema upgraded from version " + version
+                    + " doesn't match a fresh one", freshSchema, readSchema(db));
+            assertEquals("Error: Upgrading from version " + version + " lost locations",
+                    LOCATION_ROWS, DatabaseUtils.queryNumEntries(db, "location"));
+            assertEquals("Error: Upgrading from version " + version + " lost the forecast",
+                    LOCATION_ROWS * DAYS, DatabaseUtils.queryNumEntries(db, "weather"));
+            if (version >= 3) {
+                assertEquals("Error: Upgrading from version " + version + " lost sync metrics",
+                        1, DatabaseUtils.queryNumEntries(db, "sync_metrics"));
+            }
+            db.close();
+        }
+    }
+
+    public void testEachStepFitsItsBudget() {
+        for (int version = 2; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            WeatherDbMigrations.Migration migration = WeatherDbMigrations.find(version);
+            assertNotNull("Error: There is no migration from version " + version, migration);
+
+            mContext.deleteDatabase(MIGRATED_DB);
+            // A forecast far bigger than anybody keeps
+            createPastDatabase(version, 1000);
+            SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DB, Context.MODE_PRIVATE, null);
+            db.beginTransaction();
+            try {
+                long start = SystemClock.elapsedRealtime();
+                migration.migrate(db);
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                assertTrue("Error: Migrating from version " + version + " took " + elapsed
+                        + "ms, over its budget of " + migration.budgetMillis + "ms",
+                        elapsed <= migration.budgetMillis);
+            } finally {
+                db.endTransaction();
+            }
+            db.close();
+        }
+    }
+
+    public void testFailedStepRebuilds() {
+        createPastDatabase(3, DAYS);
+        // Left behind by something that didn't go to plan, so the hourly table can't be created
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DB, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE hourly (_id INTEGER PRIMARY KEY)");
+        db.close();
+
+        db = new WeatherDbHelper(mContext, MIGRATED_DB).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals("Error: A database that couldn't be migrated should have been rebuilt",
+                readFreshSchema(), readSchema(db));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "weather"));
+        db.close();
+    }
+
+    public void testFailedRebuildStepLeavesNoTablesBehind() {
+        createPastDatabase(4, DAYS);
+        // The copy into the rebuilt weather table fails once the old table has been renamed
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DB, Context.MODE_PRIVATE, null);
+        db.execSQL("ALTER TABLE weather ADD COLUMN extra INTEGER");
+        db.close();
+
+        db = new WeatherDbHelper(mContext, MIGRATED_DB).getWritableDatabase();
+        assertEquals("Error: The renamed weather table should have been dropped with the rest",
+                readFreshSchema(), readSchema(db));
+        db.close();
+    }
+
+    public void testUnknownVersionRebuilds() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DB, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date TEXT)");
+        db.setVersion(1);
+        db.close();
+
+        db = new WeatherDbHelper(mContext, MIGRATED_DB).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals("Error: A version we can't migrate from should have been rebuilt",
+                readFreshSchema(), readSchema(db));
+        db.close();
+    }
+}
@@ -27,8 +27,13 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatusEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -51,16 +56,7 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
-        mContext.getContentResolver().delete(
-                WeatherEntry.CONTENT_URI,
-                null,
-                null
-        );
-        mContext.getContentResolver().delete(
-                LocationEntry.CONTENT_URI,
-                null,
-                null
-        );
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -512,4 +508,359 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        The sync metrics table only keeps the most recent syncs, so it can't grow without bound
+        on a device that has been syncing for months.
+     */
+    public void testSyncMetricsAreBounded() {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+
+        int syncs = SyncMetricsEntry.MAX_ROWS + 10;
+        for (int i = 0; i < syncs; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SyncMetricsEntry.COLUMN_START_TIME, TestUtilities.TEST_DATE + i);
+            values.put(SyncMetricsEntry.COLUMN_APP_VERSION, 1);
+            values.put(SyncMetricsEntry.COLUMN_STATUS, 0);
+            values.put(SyncMetricsEntry.COLUMN_LOCATIONS, 1);
+            values.put(SyncMetricsEntry.COLUMN_BYTES_READ, 4096);
+            values.put(SyncMetricsEntry.COLUMN_CONNECT_TIME, 50);
+            values.put(SyncMetricsEntry.COLUMN_FIRST_BYTE_TIME, 120);
+            values.put(SyncMetricsEntry.COLUMN_DOWNLOAD_TIME, 30);
+            values.put(SyncMetricsEntry.COLUMN_PARSE_TIME, 5);
+            values.put(SyncMetricsEntry.COLUMN_DB_TIME, 10);
+            Uri uri = mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+            assertTrue(ContentUris.parseId(uri) != -1);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_START_TIME, SyncMetricsEntry.COLUMN_FAN_OUT_TIME},
+                null, null, SyncMetricsEntry.COLUMN_START_TIME + " ASC");
+        assertEquals("Error: The sync metrics table should be bounded",
+                SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest syncs should have been dropped first",
+                TestUtilities.TEST_DATE + syncs - SyncMetricsEntry.MAX_ROWS, cursor.getLong(0));
+        assertEquals("Error: The fan-out time should default to -1", -1, cursor.getLong(1));
+        cursor.close();
+
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Inserting a location setting that is already stored hands back the existing row, only
+        writes (and notifies) when something changed, and keeps the location id cache current.
+     */
+    public void testLocationInsertIsAnUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        assertTrue(locationId != -1);
+        assertEquals(locationId, LocationIdCache.get(TestUtilities.TEST_LOCATION));
+
+        // The same location again is a no-op
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true, locationObserver);
+        assertEquals("Error: Inserting a stored location setting should return its row",
+                locationId, ContentUris.parseId(
+                        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues)));
+
+        // A changed city name updates the row in place
+        ContentValues renamedValues = new ContentValues(testValues);
+        renamedValues.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        assertEquals(locationId, ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, renamedValues)));
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Upserting a location shouldn't add rows", 1, cursor.getCount());
+        TestUtilities.validateCursor("testLocationInsertIsAnUpsert.  Error validating the renamed location.",
+                cursor, renamedValues);
+
+        // Deleting locations forgets their ids
+        deleteAllRecordsFromProvider();
+        assertEquals(-1, LocationIdCache.get(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testReplaceWindow() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        // A day before the window, which replacing the window should prune
+        ContentValues oldDay = TestUtilities.createWeatherValues(locationRowId);
+        oldDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1000 * 60 * 60 * 24);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, oldDay);
+
+        ContentValues[] window = createBulkInsertWeatherValues(locationRowId);
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        assertEquals("Error: Every day of a new window should count as changed",
+                BULK_INSERT_RECORDS_TO_INSERT, mContext.getContentResolver().bulkInsert(
+                        WeatherEntry.buildWeatherWindowUri(), window));
+        weatherObserver.waitForNotificationOrFail();
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The day before the window should have been pruned",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        long firstRowId = cursor.getLong(0);
+        cursor.close();
+
+        // The same window again changes nothing, and tells nobody
+        weatherObserver.mContentChanged = false;
+        assertEquals("Error: An unchanged window shouldn't count any changes",
+                0, mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherWindowUri(), window));
+        assertFalse("Error: An unchanged window shouldn't notify", weatherObserver.mContentChanged);
+
+        // One changed day updates just that row, in place
+        window[0].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        assertEquals(1, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherWindowUri(), window));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Replacing a day should keep its row",
+                firstRowId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        TestUtilities.validateCurrentRecord("testReplaceWindow.  Error validating the changed day.",
+                cursor, window[0]);
+        cursor.close();
+    }
+
+    public void testBulkInsertSkipsUnchangedDays() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // Change one column of two days, and send everything again
+        days[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        days[7].put(WeatherEntry.COLUMN_WIND_SPEED, 12.25);
+        assertEquals("Error: Only the days that differ should count as changed",
+                2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: Writing a day again shouldn't give it a new _ID",
+                    rowIds[i], cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            TestUtilities.validateCurrentRecord("testBulkInsertSkipsUnchangedDays.  Error validating day " + i,
+                    cursor, days[i]);
+        }
+        cursor.close();
+    }
+
+    public void testBulkInsertNotifiesOnlyChangedDays() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherLocationRowId));
+
+        // The dates as the provider stored them
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] dates = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver changedDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, listObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, dates[3]),
+                true, changedDayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, dates[7]),
+                true, otherDayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherLocationObserver);
+
+        days[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        assertEquals(1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+
+        changedDayObserver.waitForNotificationOrFail();
+        listObserver.waitForNotificationOrFail();
+        assertFalse("Error: Observers of a day that didn't change were notified",
+                otherDayObserver.mContentChanged);
+        assertFalse("Error: Observers of another location were notified",
+                otherLocationObserver.mContentChanged);
+
+        mContext.getContentResolver().unregisterContentObserver(listObserver);
+        mContext.getContentResolver().unregisterContentObserver(changedDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        otherDayObserver.mHT.quit();
+        otherLocationObserver.mHT.quit();
+    }
+
+    public void testHourlyRangeQuery() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        // 40 points, 3 hours apart, starting with the one covering now
+        int firstHour = HourlyEntry.toEpochHour(System.currentTimeMillis());
+        ContentValues[] points = new ContentValues[40];
+        for (int i = 0; i < points.length; i++) {
+            ContentValues point = new ContentValues();
+            point.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            point.put(HourlyEntry.COLUMN_EPOCH_HOUR, firstHour + i * 3);
+            point.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+            point.put(HourlyEntry.COLUMN_TEMP,
+                    HourlyEntry.toFixedPoint(-12.345 + i, HourlyEntry.TEMP_SCALE));
+            point.put(HourlyEntry.COLUMN_PRESSURE,
+                    HourlyEntry.toFixedPoint(1013.25, HourlyEntry.PRESSURE_SCALE));
+            point.put(HourlyEntry.COLUMN_HUMIDITY, 80);
+            point.put(HourlyEntry.COLUMN_WIND_SPEED,
+                    HourlyEntry.toFixedPoint(3.61, HourlyEntry.WIND_SPEED_SCALE));
+            point.put(HourlyEntry.COLUMN_DEGREES, 270);
+            points[i] = point;
+        }
+        assertEquals(points.length,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, points));
+        // The same points again replace the stored ones rather than adding to them
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, points);
+
+        // The next day holds 8 points
+        long start = HourlyEntry.fromEpochHour(firstHour + 24);
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        start, start + 24 * 60 * 60 * 1000),
+                null, null, null, null);
+        assertEquals("Error: A day's range should hold 8 points", 8, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Points should be in time order from the start of the range",
+                firstHour + 24, cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_EPOCH_HOUR)));
+        assertEquals(-12.345 + 8, HourlyEntry.fromFixedPoint(
+                cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_TEMP)), HourlyEntry.TEMP_SCALE),
+                1.0 / HourlyEntry.TEMP_SCALE);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals("Error: Without a range every point should be returned",
+                points.length, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Checks that every kind of weather-by-location query reads a range of the weather table's
+        (location_id, date) index, and only ever looks up a location by its primary key.
+     */
+    public void testWeatherQueriesUseLocationIndex() {
+        String[] weatherColumns = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP
+        };
+        String[] forecastColumns = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                LocationEntry.COLUMN_COORD_LAT,
+                LocationEntry.COLUMN_COORD_LONG
+        };
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        String locationId = "1";
+        String date = Long.toString(TestUtilities.TEST_DATE);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        for (String[] projection : new String[][]{null, weatherColumns, forecastColumns}) {
+            assertUsesLocationIndex(db, WeatherProvider.buildWeatherByLocationQuery(
+                    WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, TestUtilities.TEST_DATE,
+                    projection, null), new String[]{locationId, date});
+            assertUsesLocationIndex(db, WeatherProvider.buildWeatherByLocationQuery(
+                    WeatherProvider.WEATHER_WITH_LOCATION, TestUtilities.TEST_DATE,
+                    projection, sortOrder), new String[]{locationId, date});
+            assertUsesLocationIndex(db, WeatherProvider.buildWeatherByLocationQuery(
+                    WeatherProvider.WEATHER_WITH_LOCATION, 0, projection, sortOrder),
+                    new String[]{locationId});
+        }
+        db.close();
+    }
+
+    private static void assertUsesLocationIndex(SQLiteDatabase db, String sql, String[] args) {
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        boolean readsWeather = false;
+        while (plan.moveToNext()) {
+            String detail = plan.getString(plan.getColumnIndex("detail"));
+            assertFalse("Error: " + sql + " sorts its rows: " + detail,
+                    detail.contains("TEMP B-TREE"));
+            if (detail.matches(".*\\b" + WeatherEntry.TABLE_NAME + "\\b.*")) {
+                readsWeather = true;
+                assertTrue("Error: " + sql + " doesn't read the location's range of days: " + detail,
+                        detail.startsWith("SEARCH")
+                                && detail.contains("(" + WeatherEntry.COLUMN_LOC_KEY + "=?"));
+            } else if (detail.matches(".*\\b" + LocationEntry.TABLE_NAME + "\\b.*")) {
+                assertTrue("Error: " + sql + " looks locations up by more than their id: " + detail,
+                        detail.startsWith("SEARCH") && detail.contains("INTEGER PRIMARY KEY"));
+            }
+        }
+        plan.close();
+        assertTrue("Error: No query plan for " + sql, readsWeather);
+    }
+
+    public void testSyncStatusIsPublished() {
+        ContentValues values = new ContentValues();
+        values.put(SyncStatusEntry.COLUMN_STATUS, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        values.putNull(SyncStatusEntry.COLUMN_ERROR);
+        mContext.getContentResolver().update(SyncStatusEntry.CONTENT_URI, values, null, null);
+
+        TestUtilities.TestContentObserver statusObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(SyncStatusEntry.CONTENT_URI, false, statusObserver);
+
+        ContentValues failed = new ContentValues();
+        failed.put(SyncStatusEntry.COLUMN_STATUS, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        failed.put(SyncStatusEntry.COLUMN_ERROR, "java.net.SocketTimeoutException");
+        assertEquals(1, mContext.getContentResolver().update(SyncStatusEntry.CONTENT_URI, failed, null, null));
+        statusObserver.waitForNotificationOrFail();
+
+        // The same status again only moves the timestamp, which nobody needs to hear about
+        statusObserver.mContentChanged = false;
+        assertEquals("Error: An unchanged status shouldn't count as an update",
+                0, mContext.getContentResolver().update(SyncStatusEntry.CONTENT_URI, failed, null, null));
+        mContext.getContentResolver().unregisterContentObserver(statusObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncStatusEntry.CONTENT_URI,
+                null, null, null, null);
+        assertTrue("Error: The sync status should always have a record", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testSyncStatusIsPublished.  Error validating the status.",
+                cursor, failed);
+        long timestamp = cursor.getLong(cursor.getColumnIndex(SyncStatusEntry.COLUMN_TIMESTAMP));
+        assertTrue(System.currentTimeMillis() - timestamp < 60 * 1000);
+        cursor.close();
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, Utility.getLocationStatus(mContext));
+        Utility.resetLocationStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, Utility.getLocationStatus(mContext));
+    }
 }
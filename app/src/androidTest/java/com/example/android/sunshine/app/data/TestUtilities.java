@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -36,8 +37,9 @@ import java.util.Set;
     in our solution to use these as-given.
  */
 public class TestUtilities extends AndroidTestCase {
-    static final String TEST_LOCATION = "99705";
+    public static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    public static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -61,7 +63,7 @@ public class TestUtilities extends AndroidTestCase {
     /*
         Students: Use this to create some default weather values for your database tests.
      */
-    static ContentValues createWeatherValues(long locationRowId) {
+    public static ContentValues createWeatherValues(long locationRowId) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TEST_DATE);
@@ -81,7 +83,7 @@ public class TestUtilities extends AndroidTestCase {
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
      */
-    static ContentValues createNorthPoleLocationValues() {
+    public static ContentValues createNorthPoleLocationValues() {
         // Create a new map of values, where column names are the keys
         ContentValues testValues = new ContentValues();
         testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
@@ -92,6 +94,40 @@ public class TestUtilities extends AndroidTestCase {
         return testValues;
     }
 
+    /*
+        Creates count consecutive days of the default weather values for a location, starting
+        on firstDate.
+     */
+    public static ContentValues[] createDays(long locationRowId, long firstDate, int count) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, firstDate + i * DAY_IN_MILLIS);
+        }
+        return days;
+    }
+
+    /*
+        Inserts the North Pole location values under another location setting through the
+        provider, so tests can set up more than one location.
+     */
+    public static long insertLocation(Context context, String locationSetting) {
+        ContentValues locationValues = createNorthPoleLocationValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    /*
+        Deletes every weather, hourly and location row through the provider, which also drops
+        whatever it has cached about them.
+     */
+    public static void deleteAllRecordsFromProvider(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
     /*
         Students: You can uncomment this function once you have finished creating the
         LocationEntry part of the WeatherContract as well as the WeatherDbHelper.
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+/*
+    Checks WeatherCalendar against the Time calls it replaced, and writes the per-call cost of
+    both to the log under LOG_TAG.
+ */
+public class TestWeatherCalendar extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherCalendar.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+
+    private static final int BENCHMARK_CALLS = 10000;
+
+    // How WeatherContract.normalizeDate used to work
+    private static long normalizeDateWithTime(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    // How Utility.getDayName used to find today
+    private static int getJulianTodayWithTime() {
+        Time time = new Time();
+        time.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        WeatherCalendar.invalidate();
+    }
+
+    public void testMatchesTime() {
+        assertEquals("Error: Today's Julian day is wrong",
+                getJulianTodayWithTime(), WeatherCalendar.getJulianToday());
+
+        // Every few hours from well before the table to well after it, so both the lookups and
+        // the fallback are covered
+        long now = System.currentTimeMillis();
+        for (long millis = now - 30 * DAY_IN_MILLIS; millis < now + 60 * DAY_IN_MILLIS;
+                millis += 5 * HOUR_IN_MILLIS) {
+            long expected = normalizeDateWithTime(millis);
+            assertEquals("Error: " + millis + " was normalized to the wrong day start",
+                    expected, WeatherCalendar.normalizeDate(millis));
+            assertEquals("Error: A day start should normalize to itself",
+                    expected, WeatherCalendar.normalizeDate(expected));
+        }
+    }
+
+    public void testCalendarMicrobenchmark() {
+        long now = System.currentTimeMillis();
+        // Warm the table and the JIT up
+        for (int i = 0; i < 100; i++) {
+            getJulianTodayWithTime();
+            WeatherCalendar.getJulianToday();
+            normalizeDateWithTime(now + i * DAY_IN_MILLIS / 10);
+            WeatherCalendar.normalizeDate(now + i * DAY_IN_MILLIS / 10);
+        }
+
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            sink += getJulianTodayWithTime();
+        }
+        long todayWithTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            sink += WeatherCalendar.getJulianToday();
+        }
+        long todayWithCalendar = System.nanoTime() - start;
+
+        // The 14 days of a forecast, over and over, like a list being scrolled
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            sink += (int) normalizeDateWithTime(now + (i % 14) * DAY_IN_MILLIS);
+        }
+        long normalizeWithTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            sink += (int) WeatherCalendar.normalizeDate(now + (i % 14) * DAY_IN_MILLIS);
+        }
+        long normalizeWithCalendar = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Julian today: " + todayWithTime / BENCHMARK_CALLS + "ns per call with Time, "
+                + todayWithCalendar / BENCHMARK_CALLS + "ns with WeatherCalendar");
+        Log.i(LOG_TAG, "Normalize date: " + normalizeWithTime / BENCHMARK_CALLS
+                + "ns per call with Time, " + normalizeWithCalendar / BENCHMARK_CALLS
+                + "ns with WeatherCalendar");
+        // Keeps the loops from being optimized away
+        Log.v(LOG_TAG, "Sink " + sink);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider answers repeated weather queries from WeatherQueryCache, and that
+    a write drops the results it changed and nothing else.
+ */
+public class TestWeatherQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final long TEST_DATE = WeatherContract.normalizeDate(1419033600000L);
+
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            LocationEntry.COLUMN_CITY_NAME
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+        super.tearDown();
+    }
+
+    private void writeDays(long locationId, double maxTemp) {
+        ContentValues[] days = TestUtilities.createDays(locationId, TEST_DATE, 3);
+        for (ContentValues day : days) {
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    private double queryMaxTemp(String locationSetting, long date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, date),
+                DETAIL_COLUMNS, null, null, null);
+        try {
+            assertTrue("Error: No day stored for " + locationSetting, cursor.moveToFirst());
+            assertEquals(date, cursor.getLong(0));
+            assertEquals("North Pole", cursor.getString(2));
+            return cursor.getDouble(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRepeatedQueryHits() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        writeDays(TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION), 75);
+
+        int hits = WeatherQueryCache.getHitCount();
+        int misses = WeatherQueryCache.getMissCount();
+        assertEquals(75.0, queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE));
+        assertEquals(misses + 1, WeatherQueryCache.getMissCount());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("Error: A cached result should hold the same values",
+                    75.0, queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE));
+        }
+        assertEquals("Error: Repeated queries should have been answered from memory",
+                hits + 5, WeatherQueryCache.getHitCount());
+        assertEquals(misses + 1, WeatherQueryCache.getMissCount());
+    }
+
+    public void testWriteDropsOnlyWhatItChanged() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        writeDays(locationId, 75);
+        writeDays(TestUtilities.insertLocation(mContext, OTHER_LOCATION), 60);
+        queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE);
+        queryMaxTemp(OTHER_LOCATION, TEST_DATE);
+
+        // Writing the same days again changes nothing, so nothing is dropped
+        writeDays(locationId, 75);
+        int hits = WeatherQueryCache.getHitCount();
+        queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE);
+        assertEquals("Error: An unchanged write shouldn't drop cached results",
+                hits + 1, WeatherQueryCache.getHitCount());
+
+        writeDays(locationId, 80);
+        int misses = WeatherQueryCache.getMissCount();
+        assertEquals("Error: A cached result outlived the write that changed it",
+                80.0, queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE));
+        assertEquals(misses + 1, WeatherQueryCache.getMissCount());
+
+        hits = WeatherQueryCache.getHitCount();
+        assertEquals(60.0, queryMaxTemp(OTHER_LOCATION, TEST_DATE));
+        assertEquals("Error: Writing one location dropped another location's results",
+                hits + 1, WeatherQueryCache.getHitCount());
+    }
+
+    public void testLocationWriteDropsItsResults() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        writeDays(TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION), 75);
+        queryMaxTemp(TestUtilities.TEST_LOCATION, TEST_DATE);
+
+        ContentValues renamed = TestUtilities.createNorthPoleLocationValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, renamed);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, TEST_DATE),
+                DETAIL_COLUMNS, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A cached result kept the location's old name",
+                "Santa's Village", cursor.getString(2));
+        cursor.close();
+    }
+}
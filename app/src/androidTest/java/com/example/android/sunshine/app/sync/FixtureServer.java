@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A stand-in for the OpenWeatherMap server on the loopback interface, so syncs can be run and
+    timed without a network.  Every request is answered with a fixture payload built by the
+    parser tests, after a configurable delay, and a configurable share of requests fail with a
+    500 instead.
+ */
+class FixtureServer {
+
+    public static final String LOG_TAG = FixtureServer.class.getSimpleName();
+
+    private static final String SERVER_ERROR_BODY = "{\"cod\":\"500\",\"message\":\"fixture error\"}";
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mConnections = Executors.newCachedThreadPool();
+    private final Random mRandom = new Random(42);
+
+    private volatile long mLatencyMillis;
+    private volatile float mErrorRate;
+    private volatile byte[] mDailyBody;
+    private volatile byte[] mHourlyBody;
+
+    final AtomicInteger requestCount = new AtomicInteger();
+    final AtomicInteger errorCount = new AtomicInteger();
+
+    FixtureServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        setPayloadSize(14, 40);
+    }
+
+    /*
+        The delay before each response is sent, standing in for the round trip to the server.
+     */
+    void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /*
+        The share of requests, between 0 and 1, that are answered with a server error.
+     */
+    void setErrorRate(float errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    void setPayloadSize(int numDays, int numPoints) {
+        try {
+            mDailyBody = TestForecastParser.createForecastJson(numDays).getBytes("UTF-8");
+            mHourlyBody = TestHourlyForecastParser.createHourlyJson(numPoints).getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    int getDailyBodySize() {
+        return mDailyBody.length;
+    }
+
+    /*
+        The base URL to hand to OpenWeatherMapSource.
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    void start() {
+        mConnections.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnections.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // The socket was closed by shutdown()
+                    }
+                }
+            }
+        });
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the server socket", e);
+        }
+        mConnections.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String requestLine = reader.readLine();
+            String header;
+            // Skip the headers, we answer every request the same way
+            while ((header = reader.readLine()) != null && header.length() > 0) {
+                continue;
+            }
+            requestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            boolean fail;
+            synchronized (mRandom) {
+                fail = mRandom.nextFloat() < mErrorRate;
+            }
+            if (fail) {
+                errorCount.incrementAndGet();
+                respond(socket, "500 Internal Server Error", SERVER_ERROR_BODY.getBytes("UTF-8"));
+            } else if (requestLine != null && requestLine.contains("/forecast/daily")) {
+                respond(socket, "200 OK", mDailyBody);
+            } else {
+                respond(socket, "200 OK", mHourlyBody);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error serving a fixture", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing a connection", e);
+            }
+        }
+    }
+
+    private static void respond(Socket socket, String status, byte[] body) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        String headers = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        out.write(headers.getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestFetchBackoff extends AndroidTestCase {
+
+    private void clearBackoff() {
+        mContext.getSharedPreferences("fetch_backoff", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearBackoff();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearBackoff();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsUntilTheCircuitOpens() {
+        FetchBackoff backoff = new FetchBackoff(mContext);
+        assertEquals("Error: A fresh backoff shouldn't hold anything up",
+                0, backoff.getNextAttemptTime());
+
+        long previousCeiling = 0;
+        for (int failure = 1; failure < FetchBackoff.FAILURE_THRESHOLD; failure++) {
+            long before = System.currentTimeMillis();
+            long delay = backoff.onFailure() - before;
+            long ceiling = Math.min(FetchBackoff.MAX_DELAY_MILLIS,
+                    FetchBackoff.BASE_DELAY_MILLIS << (failure - 1));
+            assertTrue("Error: Delay " + delay + " should be jittered below " + ceiling,
+                    delay >= ceiling / 2 && delay <= ceiling + 1000);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+            assertFalse(backoff.isCircuitOpen());
+        }
+
+        long before = System.currentTimeMillis();
+        long delay = backoff.onFailure() - before;
+        assertTrue("Error: The circuit should open after " + FetchBackoff.FAILURE_THRESHOLD
+                + " failures", backoff.isCircuitOpen());
+        assertTrue(delay >= FetchBackoff.COOL_DOWN_MILLIS - 1000);
+
+        // The state has to survive the process going away
+        assertTrue(new FetchBackoff(mContext).isCircuitOpen());
+    }
+
+    public void testSuccessClosesTheCircuit() {
+        FetchBackoff backoff = new FetchBackoff(mContext);
+        for (int failure = 0; failure < FetchBackoff.FAILURE_THRESHOLD; failure++) {
+            backoff.onFailure();
+        }
+        assertTrue(backoff.isCircuitOpen());
+
+        backoff.onSuccess();
+        assertFalse(backoff.isCircuitOpen());
+        assertEquals(0, backoff.getNextAttemptTime());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class TestForecastDelta extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = TestUtilities.TEST_LOCATION;
+    // December 20th, 2014.  Pushed dates are normalized, so this has to be the start of a day.
+    private static final long TEST_DATE = WeatherContract.normalizeDate(1419033600000L);
+
+    /**
+     * Builds push messages the way the server would.
+     */
+    static class FakePusher {
+        static Bundle pushDelta(String locationSetting, ContentValues... days)
+                throws JSONException {
+            JSONArray daysArray = new JSONArray();
+            for (ContentValues day : days) {
+                daysArray.put(new JSONObject()
+                        .put(ForecastDelta.DELTA_DATE,
+                                day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE))
+                        .put(ForecastDelta.DELTA_WEATHER_ID,
+                                day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID))
+                        .put(ForecastDelta.DELTA_DESCRIPTION,
+                                day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC))
+                        .put(ForecastDelta.DELTA_MAX,
+                                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP))
+                        .put(ForecastDelta.DELTA_MIN,
+                                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP))
+                        .put(ForecastDelta.DELTA_HUMIDITY,
+                                day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_HUMIDITY))
+                        .put(ForecastDelta.DELTA_PRESSURE,
+                                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE))
+                        .put(ForecastDelta.DELTA_WIND_SPEED,
+                                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED))
+                        .put(ForecastDelta.DELTA_WIND_DIRECTION,
+                                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES)));
+            }
+            Bundle extras = new Bundle();
+            extras.putString(ForecastDeltaService.EXTRA_TYPE,
+                    ForecastDeltaService.MESSAGE_TYPE_FORECAST_DELTA);
+            extras.putString(ForecastDeltaService.EXTRA_LOCATION, locationSetting);
+            extras.putString(ForecastDeltaService.EXTRA_DAYS, daysArray.toString());
+            return extras;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
+        super.tearDown();
+    }
+
+    private static ContentValues createDay(long locationId, int dayOffset, int weatherId,
+                                           double high) {
+        ContentValues weatherValues = TestUtilities.createDays(locationId,
+                TEST_DATE + dayOffset * TestUtilities.DAY_IN_MILLIS, 1)[0];
+        // Pushed humidity is a whole percentage
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 12);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, high - 10);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+
+    public void testDeltaUpdatesOnlyChangedDays() throws JSONException {
+        long locationId = TestUtilities.insertLocation(mContext, TEST_LOCATION);
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createDay(locationId, i, 800, 20 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+
+        // The server pushes the first two days, of which only the second one changed
+        Bundle extras = FakePusher.pushDelta(TEST_LOCATION,
+                createDay(locationId, 0, 800, 20), createDay(locationId, 1, 500, 15));
+        assertEquals("Error: Only the changed day should have been written",
+                1, ForecastDeltaService.applyDelta(mContext, extras));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(TEST_LOCATION,
+                        TEST_DATE + TestUtilities.DAY_IN_MILLIS),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The pushed day should have replaced the stored one",
+                500, cursor.getInt(0));
+        cursor.close();
+
+        assertEquals("Error: Pushing the same delta again shouldn't change anything",
+                0, ForecastDeltaService.applyDelta(mContext, extras));
+    }
+
+    public void testDeltaThatCantBeAppliedFallsBack() throws JSONException {
+        assertEquals("Error: A delta for a location we never synced can't be applied",
+                -1, ForecastDeltaService.applyDelta(mContext,
+                        FakePusher.pushDelta(TEST_LOCATION, createDay(-1, 0, 800, 20))));
+
+        long locationId = TestUtilities.insertLocation(mContext, TEST_LOCATION);
+        Bundle extras = FakePusher.pushDelta(TEST_LOCATION, createDay(locationId, 0, 800, 20));
+        extras.putString(ForecastDeltaService.EXTRA_DAYS, "[{\"date\": 1419033600}]");
+        assertEquals("Error: A delta with incomplete days can't be applied",
+                -1, ForecastDeltaService.applyDelta(mContext, extras));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the streaming forecast parser reads the same values as the JSONObject one, and
+    compares the cost of the two.  The benchmark results are written to the log under LOG_TAG.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        Builds a response shaped like the one returned by the forecast/daily endpoint, including
+        the fields we don't store, so both parsers have to skip over them.
+     */
+    static String createForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0132,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"day\":12.5,\"min\":").append(8 + i * 0.1)
+                    .append(",\"max\":").append(14 + i * 0.2)
+                    .append(",\"night\":9.01,\"eve\":11.3,\"morn\":8.4},")
+                    .append("\"pressure\":").append(1013.25 - i)
+                    .append(",\"humidity\":").append(60 + i)
+                    .append(",\"weather\":[{\"id\":").append(i % 2 == 0 ? 500 : 800)
+                    .append(",\"main\":\"").append(i % 2 == 0 ? "Rain" : "Clear")
+                    .append("\",\"description\":\"light rain\",\"icon\":\"10d\"}],")
+                    .append("\"speed\":").append(3.61 + i)
+                    .append(",\"deg\":").append(200 + i)
+                    .append(",\"clouds\":92,\"rain\":1.5}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static class RecordingListener implements ForecastParser.Listener {
+        String cityName;
+        double lat;
+        double lon;
+        final List<ForecastParser.Day> days = new ArrayList<ForecastParser.Day>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int index, ForecastParser.Day day) {
+            assertEquals("Error: Days were emitted out of order", days.size(), index);
+            days.add(day);
+        }
+    }
+
+    /*
+        The parse path we replaced: read the whole body into a String, then build a JSONObject
+        tree from it.
+     */
+    static int parseBuffered(InputStream in, ForecastParser.Listener listener)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        return ForecastParser.parse(buffer.toString(), listener);
+    }
+
+    public void testStreamingMatchesTreeParser() throws Exception {
+        String json = createForecastJson(14);
+
+        RecordingListener streamed = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK,
+                ForecastParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")), streamed));
+
+        RecordingListener tree = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK, ForecastParser.parse(json, tree));
+
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.lat, streamed.lat);
+        assertEquals(tree.lon, streamed.lon);
+        assertEquals(14, streamed.days.size());
+        assertEquals(tree.days.size(), streamed.days.size());
+
+        for (int i = 0; i < tree.days.size(); i++) {
+            ForecastParser.Day expected = tree.days.get(i);
+            ForecastParser.Day actual = streamed.days.get(i);
+            String error = "Error: Day " + i + " differs between the parsers";
+            assertEquals(error, expected.pressure, actual.pressure);
+            assertEquals(error, expected.humidity, actual.humidity);
+            assertEquals(error, expected.windSpeed, actual.windSpeed);
+            assertEquals(error, expected.windDirection, actual.windDirection);
+            assertEquals(error, expected.high, actual.high);
+            assertEquals(error, expected.low, actual.low);
+            assertEquals(error, expected.description, actual.description);
+            assertEquals(error, expected.weatherId, actual.weatherId);
+        }
+    }
+
+    public void testErrorCodeStopsParsing() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        RecordingListener listener = new RecordingListener();
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")), listener));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, ForecastParser.parse(json, listener));
+        assertNull(listener.cityName);
+        assertTrue(listener.days.isEmpty());
+    }
+
+    public void testEmptyStreamIsAnIoError() throws Exception {
+        try {
+            ForecastParser.parse(new ByteArrayInputStream(new byte[0]), new RecordingListener());
+            fail("Error: An empty response should be reported as an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testIncompleteDayIsInvalid() throws Exception {
+        String json = "{\"cod\":\"200\",\"list\":[{\"pressure\":1000}]}";
+        try {
+            ForecastParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                    new RecordingListener());
+            fail("Error: A day without all of its fields should be rejected");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testParseBenchmark14Days() throws Exception {
+        runParseBenchmark(14);
+    }
+
+    public void testParseBenchmark16Days() throws Exception {
+        runParseBenchmark(16);
+    }
+
+    private void runParseBenchmark(int numDays) throws Exception {
+        byte[] payload = createForecastJson(numDays).getBytes("UTF-8");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseBuffered(new ByteArrayInputStream(payload), new RecordingListener());
+            ForecastParser.parse(new ByteArrayInputStream(payload), new RecordingListener());
+        }
+
+        Result buffered = measure(payload, true);
+        Result streamed = measure(payload, false);
+
+        Log.i(LOG_TAG, numDays + " days, " + payload.length + " bytes: buffered " + buffered
+                + ", streamed " + streamed);
+
+        // Both must have read every day
+        assertEquals(numDays, buffered.days);
+        assertEquals(numDays, streamed.days);
+    }
+
+    /*
+        Peak heap is sampled from inside the listener callbacks, which is where the buffered
+        path still holds both the raw String and the JSONObject tree.
+     */
+    private Result measure(byte[] payload, boolean buffered) throws Exception {
+        final Runtime runtime = Runtime.getRuntime();
+        Result result = new Result();
+
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            System.gc();
+            final long baseline = runtime.totalMemory() - runtime.freeMemory();
+            final long[] peak = {0};
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void onDay(int index, ForecastParser.Day day) {
+                    super.onDay(index, day);
+                    peak[0] = Math.max(peak[0],
+                            runtime.totalMemory() - runtime.freeMemory() - baseline);
+                }
+            };
+
+            Debug.startAllocCounting();
+            long startAllocBytes = Debug.getThreadAllocSize();
+            long start = System.nanoTime();
+            if (buffered) {
+                parseBuffered(new ByteArrayInputStream(payload), listener);
+            } else {
+                ForecastParser.parse(new ByteArrayInputStream(payload), listener);
+            }
+            result.nanos += System.nanoTime() - start;
+            result.allocBytes += Debug.getThreadAllocSize() - startAllocBytes;
+            Debug.stopAllocCounting();
+
+            result.peakHeapBytes = Math.max(result.peakHeapBytes, peak[0]);
+            result.days = listener.days.size();
+        }
+        result.nanos /= BENCHMARK_ITERATIONS;
+        result.allocBytes /= BENCHMARK_ITERATIONS;
+        return result;
+    }
+
+    static class Result {
+        long nanos;
+        long allocBytes;
+        long peakHeapBytes;
+        int days;
+
+        @Override
+        public String toString() {
+            return (nanos / 1000) + "us/parse, " + allocBytes + " bytes allocated/parse, "
+                    + peakHeapBytes + " bytes peak heap";
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+
+    private void deleteCache() {
+        File directory = new File(mContext.getCacheDir(), "forecast_responses");
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteCache();
+        super.tearDown();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /*
+        The response is copied into the cache while the parser reads it, and can be parsed again
+        from the cache afterwards.
+     */
+    public void testCommittedResponseIsReplayed() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mContext);
+        assertFalse("Error: An empty cache can't be fresh", cache.isFresh(LOCATION));
+        assertNull(cache.open(LOCATION));
+
+        byte[] payload = TestForecastParser.createForecastJson(14).getBytes("UTF-8");
+        ForecastResponseCache.Editor editor = cache.edit(LOCATION);
+        InputStream in = editor.tee(new ByteArrayInputStream(payload));
+        TestForecastParser.RecordingListener listener = new TestForecastParser.RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK, ForecastParser.parse(in, listener));
+        // The parser may not have needed the very last bytes
+        readFully(in);
+        editor.commit();
+
+        assertTrue("Error: A response just written should be fresh", cache.isFresh(LOCATION));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getLocationSettings().contains(LOCATION));
+
+        TestForecastParser.RecordingListener replayed = new TestForecastParser.RecordingListener();
+        ForecastResponseCache.CachedResponse cached = cache.open(LOCATION);
+        assertTrue("Error: The response should remember when it was fetched",
+                Math.abs(System.currentTimeMillis() - cached.getFetchTime()) < 60 * 1000);
+        assertEquals(HttpURLConnection.HTTP_OK, ForecastParser.parse(cached, replayed));
+        cached.close();
+        assertEquals(listener.cityName, replayed.cityName);
+        assertEquals(14, replayed.days.size());
+    }
+
+    public void testAbortedResponseIsNotKept() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mContext);
+        ForecastResponseCache.Editor editor = cache.edit(LOCATION);
+        readFully(editor.tee(new ByteArrayInputStream("{\"cod\":\"500\"}".getBytes("UTF-8"))));
+        editor.abort();
+
+        assertNull("Error: An aborted response shouldn't be cached", cache.open(LOCATION));
+        assertTrue(cache.getLocationSettings().isEmpty());
+    }
+
+    public void testOldestResponsesAreEvicted() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mContext);
+        // Random bytes don't compress, so each response takes about a third of the cap
+        byte[] payload = new byte[(int) (ForecastResponseCache.MAX_SIZE_BYTES / 3)];
+        new Random(42).nextBytes(payload);
+
+        for (int i = 0; i < 4; i++) {
+            ForecastResponseCache.Editor editor = cache.edit("location" + i);
+            readFully(editor.tee(new ByteArrayInputStream(payload)));
+            editor.commit();
+            // Make sure each response has its own modification time
+            new File(new File(mContext.getCacheDir(), "forecast_responses"), "location" + i)
+                    .setLastModified(System.currentTimeMillis() - (4 - i) * 60 * 1000);
+        }
+
+        assertTrue("Error: Nothing was evicted", cache.getEvictionCount() > 0);
+        assertNull("Error: The oldest response should have been evicted", cache.open("location0"));
+        InputStream newest = cache.open("location3");
+        assertNotNull("Error: The newest response should have been kept", newest);
+        newest.close();
+    }
+}
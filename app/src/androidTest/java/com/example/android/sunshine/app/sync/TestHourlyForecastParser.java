@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+
+public class TestHourlyForecastParser extends AndroidTestCase {
+
+    /*
+        Builds a response shaped like the one returned by the 3-hourly forecast endpoint,
+        including the fields we don't store.
+     */
+    static String createHourlyJson(int numPoints) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"cod\":\"200\",\"message\":0.0032,\"cnt\":").append(numPoints)
+                .append(",\"list\":[");
+        for (int i = 0; i < numPoints; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419033600L + i * 3 * 3600L)
+                    .append(",\"main\":{\"temp\":").append(-3.47 + i * 0.5)
+                    .append(",\"temp_min\":-4.1,\"temp_max\":-2.9,\"pressure\":")
+                    .append(1013.25 - i * 0.1)
+                    .append(",\"sea_level\":1030.1,\"humidity\":").append(70 + i % 30)
+                    .append("},\"weather\":[{\"id\":600,\"main\":\"Snow\",")
+                    .append("\"description\":\"light snow\",\"icon\":\"13n\"}],")
+                    .append("\"clouds\":{\"all\":88},\"wind\":{\"speed\":").append(4.12 + i)
+                    .append(",\"deg\":").append(181.5 + i)
+                    .append("},\"sys\":{\"pod\":\"n\"},\"dt_txt\":\"2014-12-20 00:00:00\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public void testStreamAndTreeReadTheSamePoints() throws Exception {
+        String json = createHourlyJson(40);
+
+        SunshineSyncAdapter.HourlyValuesCollector streamed = new SunshineSyncAdapter.HourlyValuesCollector();
+        assertEquals(HttpURLConnection.HTTP_OK, HourlyForecastParser.parse(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), streamed));
+        SunshineSyncAdapter.HourlyValuesCollector tree = new SunshineSyncAdapter.HourlyValuesCollector();
+        assertEquals(HttpURLConnection.HTTP_OK, HourlyForecastParser.parse(json, tree));
+
+        assertEquals(40, streamed.values.size());
+        assertEquals("Error: Both parsers should read the same points",
+                tree.values, streamed.values);
+
+        ContentValues first = streamed.values.get(0);
+        assertEquals(HourlyEntry.toEpochHour(1419033600L * 1000),
+                (int) first.getAsInteger(HourlyEntry.COLUMN_EPOCH_HOUR));
+        assertEquals("Error: Temperatures should be stored in hundredths of a degree",
+                -347, (int) first.getAsInteger(HourlyEntry.COLUMN_TEMP));
+        assertEquals(10133, (int) first.getAsInteger(HourlyEntry.COLUMN_PRESSURE));
+        assertEquals(412, (int) first.getAsInteger(HourlyEntry.COLUMN_WIND_SPEED));
+        assertEquals(600, (int) first.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID));
+    }
+
+    public void testErrorCodeStopsParsing() throws Exception {
+        SunshineSyncAdapter.HourlyValuesCollector collector = new SunshineSyncAdapter.HourlyValuesCollector();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, HourlyForecastParser.parse(
+                new ByteArrayInputStream("{\"cod\":\"404\",\"message\":\"city not found\"}"
+                        .getBytes("UTF-8")), collector));
+        assertTrue(collector.values.isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+
+public class TestNotificationIconCache extends AndroidTestCase {
+
+    private void clearIcons() {
+        File[] files = new File(mContext.getCacheDir(), NotificationIconCache.DIRECTORY_NAME)
+                .listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearIcons();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearIcons();
+        super.tearDown();
+    }
+
+    public void testWearIconIsOnlyDecodedOnce() {
+        NotificationIconCache cache = new NotificationIconCache(mContext);
+        WeatherNotificationBuilder builder = new WeatherNotificationBuilder(mContext, cache);
+        int size = (int) mContext.getResources().getDimension(R.dimen.img_size);
+
+        Bitmap icon = builder.getWearIcon(802);
+        assertEquals("Error: The wear icon should be scaled", size, icon.getWidth());
+        assertEquals(size, icon.getHeight());
+        assertEquals("Error: The first icon should have been decoded", 1, cache.getMissCount());
+
+        // Scattered and broken clouds share their icon
+        assertSame(icon, builder.getWearIcon(802));
+        builder.getWearIcon(803);
+        assertEquals("Error: The same icon should come from memory",
+                2, cache.getMemoryHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testIconsSurviveTheProcess() {
+        NotificationIconCache cache = new NotificationIconCache(mContext);
+        WeatherNotificationBuilder builder = new WeatherNotificationBuilder(mContext, cache);
+        builder.getWearIcon(500);
+
+        // A new process starts with nothing in memory
+        cache.evictMemory();
+        Bitmap icon = new WeatherNotificationBuilder(mContext, cache).getWearIcon(500);
+        assertEquals("Error: The icon should have been read back from disk",
+                1, cache.getDiskHitCount());
+        assertEquals(1, cache.getMissCount());
+        int size = (int) mContext.getResources().getDimension(R.dimen.img_size);
+        assertEquals(size, icon.getWidth());
+    }
+}
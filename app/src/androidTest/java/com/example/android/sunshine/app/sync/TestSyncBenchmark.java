@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.util.Arrays;
+
+/*
+    Runs whole syncs against a FixtureServer, so sync latency and throughput can be compared
+    between builds on any device or emulator, with or without a network.  The benchmark
+    results are written to the log under LOG_TAG.  How the rows themselves are inserted is
+    compared in TestBulkInsertBenchmark.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_SYNCS = 3;
+    private static final int BENCHMARK_SYNCS = 20;
+
+    private FixtureServer mServer;
+
+    /*
+        Forgets everything that would let a sync skip the server: the cached responses, their
+        validators and the backoff.
+     */
+    private void resetSyncState() {
+        File[] cached = new File(mContext.getCacheDir(),
+                ForecastResponseCache.DIRECTORY_NAME).listFiles();
+        if (cached != null) {
+            for (File file : cached) {
+                file.delete();
+            }
+        }
+        mContext.getSharedPreferences(ForecastValidators.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mContext.getSharedPreferences(FetchBackoff.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FixtureServer();
+        mServer.start();
+        SunshineSyncAdapter.setWeatherSource(new OpenWeatherMapSource(mServer.getBaseUrl(), "fixture"));
+        // Only the database is written, so running the benchmark doesn't post the notification,
+        // start a watch update or reschedule the real periodic sync
+        SunshineSyncAdapter.setUpdatesApp(false);
+        resetSyncState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setWeatherSource(new OpenWeatherMapSource());
+        SunshineSyncAdapter.setUpdatesApp(true);
+        mServer.shutdown();
+        resetSyncState();
+        super.tearDown();
+    }
+
+    private SyncResult sync(SunshineSyncAdapter adapter) {
+        resetSyncState();
+        SyncResult syncResult = new SyncResult();
+        adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        return syncResult;
+    }
+
+    /*
+        Times BENCHMARK_SYNCS syncs of the preferred location and logs the median and 90th
+        percentile sync time, and how many forecast days were stored per second.
+     */
+    private void benchmark(String name, long latencyMillis, int numDays) {
+        mServer.setLatencyMillis(latencyMillis);
+        mServer.setPayloadSize(numDays, numDays * 8 / 3);
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        for (int i = 0; i < WARMUP_SYNCS; i++) {
+            sync(adapter);
+        }
+
+        long[] syncMillis = new long[BENCHMARK_SYNCS];
+        long total = 0;
+        for (int i = 0; i < BENCHMARK_SYNCS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            sync(adapter);
+            syncMillis[i] = SystemClock.elapsedRealtime() - start;
+            total += syncMillis[i];
+        }
+        Arrays.sort(syncMillis);
+        Log.i(LOG_TAG, name + ": " + numDays + " days (" + mServer.getDailyBodySize() + " bytes), "
+                + latencyMillis + "ms latency: median " + syncMillis[BENCHMARK_SYNCS / 2]
+                + "ms, p90 " + syncMillis[BENCHMARK_SYNCS * 9 / 10] + "ms, "
+                + (total == 0 ? 0 : BENCHMARK_SYNCS * numDays * 1000L / total) + " days/s");
+
+        assertEquals("Error: The last sync should have succeeded",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    public void testSyncBenchmark() {
+        benchmark("No latency", 0, 14);
+        benchmark("Mobile latency", 150, 14);
+        benchmark("Large payload", 0, 16 * 20);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(Utility.getPreferredLocation(mContext)),
+                null, null, null, null);
+        assertTrue("Error: The fixture forecast wasn't stored", cursor.getCount() > 0);
+        cursor.close();
+    }
+
+    public void testServerErrorsAreReported() {
+        mServer.setErrorRate(1);
+        SyncResult syncResult = sync(new SunshineSyncAdapter(mContext, false));
+
+        assertTrue("Error: The server should have been asked", mServer.requestCount.get() > 0);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, Utility.getLocationStatus(mContext));
+        assertTrue("Error: A failed sync should tell the SyncManager to back off",
+                syncResult.delayUntil > 0);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    // Requests the coalescer sent, instead of starting real syncs
+    private int mSent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncCoalescer.reset();
+        SyncCoalescer.setSender(new SyncCoalescer.Sender() {
+            @Override
+            public void send(Context context) {
+                synchronized (TestSyncCoalescer.this) {
+                    mSent++;
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncCoalescer.reset();
+        SyncCoalescer.setSender(SyncCoalescer.EXPEDITED_SYNC);
+        super.tearDown();
+    }
+
+    private synchronized int getSent() {
+        return mSent;
+    }
+
+    public void testRequestsJoinTheRunningSync() {
+        SyncCoalescer.onSyncStarted(Utility.getPreferredLocation(mContext));
+        SunshineSyncAdapter.syncImmediately(mContext);
+        SunshineSyncAdapter.syncImmediately(mContext);
+        assertEquals("Error: Requests for the location being synced should join that sync",
+                2, SyncCoalescer.getMergedCount());
+
+        SyncCoalescer.onSyncFinished();
+        SunshineSyncAdapter.syncImmediately(mContext);
+        assertEquals("Error: A request after the sync finished shouldn't be merged",
+                2, SyncCoalescer.getMergedCount());
+    }
+
+    public void testBurstIsDebounced() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            SunshineSyncAdapter.syncImmediately(mContext);
+        }
+        assertEquals("Error: Nothing should be sent during the debounce window",
+                0, SyncCoalescer.getSentCount());
+        assertEquals(4, SyncCoalescer.getMergedCount());
+
+        Thread.sleep(SyncCoalescer.DEBOUNCE_MILLIS * 2);
+        assertEquals("Error: The burst should have been sent as a single request",
+                1, SyncCoalescer.getSentCount());
+        assertEquals(1, getSent());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads the weather art for a synced forecast into Glide's disk cache, so the forecast
+ * list, the detail view, the widgets and the notification draw it from disk instead of waiting
+ * on the network the first time.
+ *
+ * A forecast only ever needs a handful of distinct images, so each URL is fetched once however
+ * many days use it.  The art is cached as downloaded, and every consumer loads it with
+ * {@link com.bumptech.glide.load.engine.DiskCacheStrategy#ALL} so it can decode its own size
+ * from that copy.
+ *
+ * Consumers report each render through {@link #trackRender(String)}.  The first render of
+ * each image is timed, split by whether the image had been prefetched, to see whether
+ * prefetching pays off.  Later renders of the same image are cached either way, so they aren't
+ * counted.
+ */
+public final class ArtworkPrefetcher {
+    private static final String LOG_TAG = ArtworkPrefetcher.class.getSimpleName();
+
+    // How long one image may take before it is left for its consumers to load themselves
+    static final long TIMEOUT_SECONDS = 15;
+
+    // URLs this prefetcher downloaded into the disk cache
+    private static final Set<String> sPrefetchedUrls = new HashSet<String>();
+    // URLs that have been rendered, and so are in the disk cache whether or not they were
+    // prefetched
+    private static final Set<String> sRenderedUrls = new HashSet<String>();
+
+    private static int sPrefetched;
+    private static int sPrefetchFailures;
+    private static int sWarmRenders;
+    private static int sColdRenders;
+    private static long sWarmRenderMillis;
+    private static long sColdRenderMillis;
+
+    private ArtworkPrefetcher() {
+    }
+
+    /**
+     * Downloads the art of every weather condition given.  This blocks until every image is
+     * in the cache or has taken longer than {@link #TIMEOUT_SECONDS}, so it must not run on the
+     * UI thread.
+     */
+    public static void prefetch(Context context, Collection<Integer> weatherIds) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+        Set<String> urls = new LinkedHashSet<String>();
+        for (int weatherId : weatherIds) {
+            String url = Utility.getArtUrlForWeatherCondition(context, weatherId);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        for (String url : urls) {
+            synchronized (ArtworkPrefetcher.class) {
+                if (sPrefetchedUrls.contains(url) || sRenderedUrls.contains(url)) {
+                    continue;
+                }
+            }
+            FutureTarget<File> download = Glide.with(context)
+                    .load(url)
+                    .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+            try {
+                download.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                synchronized (ArtworkPrefetcher.class) {
+                    sPrefetchedUrls.add(url);
+                    sPrefetched++;
+                }
+            } catch (InterruptedException e) {
+                // Whoever runs the prefetch wants it to stop, so leave the rest of the art too
+                download.cancel(true);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                // A stalled image host shouldn't hold up anything queued behind the prefetch
+                download.cancel(true);
+                Log.e(LOG_TAG, "Error prefetching " + url, e);
+                synchronized (ArtworkPrefetcher.class) {
+                    sPrefetchFailures++;
+                }
+            }
+        }
+        Log.d(LOG_TAG, "Artwork: " + asString());
+    }
+
+    /**
+     * @return a listener to attach to a Glide request for the art at url.  If this is the
+     * first time the art is shown, the render counts as warm if it had been prefetched and as
+     * cold if not.
+     */
+    public static <R> RequestListener<String, R> trackRender(final String url) {
+        final long start = SystemClock.elapsedRealtime();
+        return new RequestListener<String, R>() {
+            @Override
+            public boolean onException(Exception e, String model, Target<R> target,
+                                       boolean isFirstResource) {
+                return false;
+            }
+
+            @Override
+            public boolean onResourceReady(R resource, String model, Target<R> target,
+                                           boolean isFromMemoryCache, boolean isFirstResource) {
+                long millis = SystemClock.elapsedRealtime() - start;
+                synchronized (ArtworkPrefetcher.class) {
+                    if (!sRenderedUrls.add(url) || isFromMemoryCache) {
+                        // Not the first render, which is all prefetching can speed up
+                        return false;
+                    }
+                    if (sPrefetchedUrls.contains(url)) {
+                        sWarmRenders++;
+                        sWarmRenderMillis += millis;
+                    } else {
+                        sColdRenders++;
+                        sColdRenderMillis += millis;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the share of first renders that found their art prefetched, between 0 and 1
+     */
+    public static synchronized float getHitRate() {
+        int renders = sWarmRenders + sColdRenders;
+        return renders == 0 ? 0 : (float) sWarmRenders / renders;
+    }
+
+    public static synchronized String asString() {
+        return sPrefetched + " prefetched, " + sPrefetchFailures + " failed, "
+                + sWarmRenders + " warm renders (avg "
+                + (sWarmRenders == 0 ? 0 : sWarmRenderMillis / sWarmRenders) + "ms), "
+                + sColdRenders + " cold renders (avg "
+                + (sColdRenders == 0 ? 0 : sColdRenderMillis / sColdRenders) + "ms), "
+                + "hit rate " + getHitRate();
+    }
+}
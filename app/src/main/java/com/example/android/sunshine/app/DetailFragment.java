@@ -38,6 +38,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -204,8 +206,11 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
             } else {
                 // Use weather art image
+                String artUrl = Utility.getArtUrlForWeatherCondition(getActivity(), weatherId);
                 Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                        .load(artUrl)
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
+                        .listener(ArtworkPrefetcher.<GlideDrawable>trackRender(artUrl))
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
@@ -30,6 +30,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
@@ -142,8 +144,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(artUrl)
+                    .diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .listener(ArtworkPrefetcher.<GlideDrawable>trackRender(artUrl))
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
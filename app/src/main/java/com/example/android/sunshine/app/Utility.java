@@ -15,14 +15,17 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.WeatherCalendar;
+import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.wearable.Asset;
 
@@ -82,11 +85,8 @@ public class Utility {
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int julianDay = WeatherCalendar.getJulianDay(dateInMillis);
+        int currentJulianDay = WeatherCalendar.getJulianToday();
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
@@ -137,17 +137,13 @@ public class Utility {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        int julianDay = WeatherCalendar.getJulianDay(dateInMillis);
+        int currentJulianDay = WeatherCalendar.getJulianToday();
         if (julianDay == currentJulianDay) {
             return context.getString(R.string.today);
         } else if ( julianDay == currentJulianDay +1 ) {
             return context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
             SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
             return dayFormat.format(dateInMillis);
@@ -162,9 +158,6 @@ public class Utility {
      * @return The day in the form of a string formatted "December 6"
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
         SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
         String monthDayString = monthDayFormat.format(dateInMillis);
         return monthDayString;
@@ -557,26 +550,39 @@ public class Utility {
     }
 
     /**
+     * The provider keeps the sync status record in memory, so this is cheap enough for the UI
+     * thread.
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the ContentResolver
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        Cursor cursor = c.getContentResolver().query(WeatherContract.SyncStatusEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncStatusEntry.COLUMN_STATUS}, null, null, null);
+        if (cursor == null) {
+            return SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        }
+        try {
+            return cursor.moveToFirst()
+                    ? cursor.getInt(0) : SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the ContentResolver
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncStatusEntry.COLUMN_STATUS,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        values.putNull(WeatherContract.SyncStatusEntry.COLUMN_ERROR);
+        c.getContentResolver().update(WeatherContract.SyncStatusEntry.CONTENT_URI, values,
+                null, null);
     }
 
     public static Asset createAssetFromBitmap(Bitmap bitmap) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Inserts many rows of the same shape through one compiled INSERT, instead of having
+ * {@link SQLiteDatabase#insert} build and compile the SQL again for every row.
+ *
+ * Rows still arrive as ContentValues.  A row that holds exactly the statement's columns is
+ * bound straight onto the statement with the bind call for its type; any other row goes through
+ * {@link SQLiteDatabase#insert} as before.  Meant to be used inside a transaction, and closed
+ * once the rows are in.
+ */
+class BulkInsertStatement {
+    private static final String LOG_TAG = BulkInsertStatement.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+    private final SQLiteStatement mStatement;
+
+    BulkInsertStatement(SQLiteDatabase db, String table, String... columns) {
+        mDb = db;
+        mTable = table;
+        mColumns = columns;
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        mStatement = db.compileStatement(sql.append(')').toString());
+    }
+
+    /**
+     * @return the row ID of the new row, or -1 if it couldn't be inserted, like
+     * {@link SQLiteDatabase#insert}
+     */
+    long insert(ContentValues values) {
+        if (values.size() != mColumns.length) {
+            return mDb.insert(mTable, null, values);
+        }
+        for (int i = 0; i < mColumns.length; i++) {
+            if (!values.containsKey(mColumns[i])) {
+                return mDb.insert(mTable, null, values);
+            }
+        }
+
+        mStatement.clearBindings();
+        for (int i = 0; i < mColumns.length; i++) {
+            // Bind parameters start at 1
+            bind(i + 1, values.get(mColumns[i]));
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    private void bind(int index, Object value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            mStatement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            mStatement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            mStatement.bindBlob(index, (byte[]) value);
+        } else {
+            mStatement.bindString(index, value.toString());
+        }
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
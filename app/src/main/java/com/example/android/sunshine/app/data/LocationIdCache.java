@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the location table row id of each location setting, so neither writing the sync's
+ * location nor reading its weather has to look the row up on every run.
+ *
+ * The provider fills the cache in as it writes locations, and clears it whenever the location
+ * table changes in a way it can't follow.  That only works because the provider and the sync
+ * adapter run in the same process.
+ */
+public final class LocationIdCache {
+
+    private static final Map<String, Long> sIds = new HashMap<String, Long>();
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the row id of the location setting, or -1 if it isn't cached
+     */
+    public static long get(String locationSetting) {
+        synchronized (sIds) {
+            Long id = sIds.get(locationSetting);
+            return id != null ? id : -1;
+        }
+    }
+
+    static void put(String locationSetting, long id) {
+        synchronized (sIds) {
+            sIds.put(locationSetting, id);
+        }
+    }
+
+    static void invalidate() {
+        synchronized (sIds) {
+            sIds.clear();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * Holds the sync status record behind {@link WeatherContract.SyncStatusEntry}.
+ *
+ * The record is read from its own preferences file the first time it is needed and kept in
+ * memory after that.  Changes are written back with apply(), so setting the status never waits
+ * on the disk, and the record isn't lost when the process goes away.
+ */
+class SyncStatusStore {
+
+    private static final String PREFS_NAME = "sync_status";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_ERROR = "error";
+
+    private static final String[] ALL_COLUMNS = {
+            WeatherContract.SyncStatusEntry.COLUMN_STATUS,
+            WeatherContract.SyncStatusEntry.COLUMN_TIMESTAMP,
+            WeatherContract.SyncStatusEntry.COLUMN_ERROR
+    };
+
+    private final SharedPreferences mPrefs;
+    private int mStatus;
+    private long mTimestamp;
+    private String mError;
+
+    SyncStatusStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mStatus = mPrefs.getInt(KEY_STATUS, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        mTimestamp = mPrefs.getLong(KEY_TIMESTAMP, 0);
+        mError = mPrefs.getString(KEY_ERROR, null);
+    }
+
+    /**
+     * @return a single row cursor holding the record
+     */
+    synchronized Cursor query(String[] projection) {
+        if (projection == null) {
+            projection = ALL_COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (WeatherContract.SyncStatusEntry.COLUMN_STATUS.equals(projection[i])) {
+                row[i] = mStatus;
+            } else if (WeatherContract.SyncStatusEntry.COLUMN_TIMESTAMP.equals(projection[i])) {
+                row[i] = mTimestamp;
+            } else if (WeatherContract.SyncStatusEntry.COLUMN_ERROR.equals(projection[i])) {
+                row[i] = mError;
+            } else {
+                throw new IllegalArgumentException("Unknown column " + projection[i]);
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Sets the values given, and stamps the record with the current time if there's no
+     * timestamp among them.
+     *
+     * @return true if the status or the error changed, so observers need to be told
+     */
+    synchronized boolean update(ContentValues values) {
+        int status = mStatus;
+        String error = mError;
+        if (values.containsKey(WeatherContract.SyncStatusEntry.COLUMN_STATUS)) {
+            status = values.getAsInteger(WeatherContract.SyncStatusEntry.COLUMN_STATUS);
+        }
+        if (values.containsKey(WeatherContract.SyncStatusEntry.COLUMN_ERROR)) {
+            error = values.getAsString(WeatherContract.SyncStatusEntry.COLUMN_ERROR);
+        }
+        Long timestamp = values.getAsLong(WeatherContract.SyncStatusEntry.COLUMN_TIMESTAMP);
+
+        boolean changed = status != mStatus || !TextUtils.equals(error, mError);
+        mStatus = status;
+        mError = error;
+        mTimestamp = timestamp != null ? timestamp : System.currentTimeMillis();
+        mPrefs.edit()
+                .putInt(KEY_STATUS, mStatus)
+                .putLong(KEY_TIMESTAMP, mTimestamp)
+                .putString(KEY_ERROR, mError)
+                .apply();
+        return changed;
+    }
+}
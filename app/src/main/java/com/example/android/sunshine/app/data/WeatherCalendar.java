@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import java.util.Arrays;
+
+/**
+ * Answers the day questions the app asks all the time (which Julian day is today, which day a
+ * date falls on, when a day starts) without allocating a {@link Time} for each one.
+ *
+ * Today's Julian day and the start of every day from {@link #PAST_DAYS} before today to
+ * {@link #FUTURE_DAYS} after it are worked out once, which covers every date the forecast
+ * stores.  They are worked out again once the current time leaves today, and when the time zone
+ * changes, see {@link #invalidate()}.  Days outside of the table still get an answer, just at the
+ * cost of a Time.
+ *
+ * A day starts at midnight in the default time zone, which is what {@link Time#setJulianDay(int)}
+ * gives and what the dates in the database have always been normalized to.
+ */
+public final class WeatherCalendar {
+
+    static final int PAST_DAYS = 7;
+    static final int FUTURE_DAYS = 31;
+
+    private static volatile Days sDays;
+
+    private WeatherCalendar() {
+    }
+
+    /**
+     * One time zone's worth of day starts around one day.  Never changed once built, so it can
+     * be read from any thread.
+     */
+    private static final class Days {
+        final int julianToday;
+        final int firstJulianDay;
+        // The start of firstJulianDay + i.  The last entry is the end of the last day.
+        final long[] dayStarts;
+
+        Days(long now) {
+            Time time = new Time();
+            time.set(now);
+            julianToday = Time.getJulianDay(now, time.gmtoff);
+            firstJulianDay = julianToday - PAST_DAYS;
+            dayStarts = new long[PAST_DAYS + 1 + FUTURE_DAYS + 1];
+            for (int i = 0; i < dayStarts.length; i++) {
+                dayStarts[i] = time.setJulianDay(firstJulianDay + i);
+            }
+        }
+
+        boolean isToday(long millis) {
+            return millis >= dayStarts[PAST_DAYS] && millis < dayStarts[PAST_DAYS + 1];
+        }
+    }
+
+    private static Days getDays() {
+        Days days = sDays;
+        long now = System.currentTimeMillis();
+        if (days == null || !days.isToday(now)) {
+            days = new Days(now);
+            sDays = days;
+        }
+        return days;
+    }
+
+    /**
+     * @return today's Julian day
+     */
+    public static int getJulianToday() {
+        return getDays().julianToday;
+    }
+
+    /**
+     * @return the Julian day the time falls on
+     */
+    public static int getJulianDay(long millis) {
+        Days days = getDays();
+        long[] dayStarts = days.dayStarts;
+        if (millis >= dayStarts[0] && millis < dayStarts[dayStarts.length - 1]) {
+            int index = Arrays.binarySearch(dayStarts, millis);
+            // Between two starts, the insertion point is just after the day it falls on
+            return days.firstJulianDay + (index >= 0 ? index : -index - 2);
+        }
+        Time time = new Time();
+        time.set(millis);
+        return Time.getJulianDay(millis, time.gmtoff);
+    }
+
+    /**
+     * @return the time the Julian day starts at
+     */
+    public static long getDayStart(int julianDay) {
+        Days days = getDays();
+        int index = julianDay - days.firstJulianDay;
+        if (index >= 0 && index < days.dayStarts.length) {
+            return days.dayStarts[index];
+        }
+        return new Time().setJulianDay(julianDay);
+    }
+
+    /**
+     * @return the start of the day the time falls on
+     */
+    public static long normalizeDate(long millis) {
+        return getDayStart(getJulianDay(millis));
+    }
+
+    /**
+     * Forgets the day starts, for when the time zone has changed.
+     */
+    public static void invalidate() {
+        sDays = null;
+    }
+}
@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,15 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_SYNC_STATUS = "sync_status";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return WeatherCalendar.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -126,10 +125,28 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter marking a bulk insert as a new forecast window, see
+        // buildWeatherWindowUri
+        public static final String PARAM_REPLACE_WINDOW = "replace_window";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Bulk inserting into CONTENT_URI compares each day with the day stored for the same
+            location and date: new days are inserted, days that changed have just their changed
+            columns written in place (keeping their _ID), and identical days are left alone.  It
+            returns the number of days that were new or changed, and observers of the weather Uris
+            are notified once, and not at all if nothing changed.
+
+            Bulk inserting into this Uri does the same, and also deletes every day older than the
+            first day inserted, in the same transaction.
+         */
+        public static Uri buildWeatherWindowUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_REPLACE_WINDOW, "1").build();
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +182,173 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // Only the most recent syncs are kept, older rows are dropped as new ones are inserted
+        public static final int MAX_ROWS = 200;
+
+        // When the sync started, stored as long in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // versionCode of the app that ran the sync, so releases can be compared
+        public static final String COLUMN_APP_VERSION = "app_version";
+        // LOCATION_STATUS_* of the preferred location at the end of the sync
+        public static final String COLUMN_STATUS = "status";
+        // Number of locations the sync fetched
+        public static final String COLUMN_LOCATIONS = "locations";
+
+        // Bytes of response body read from the network
+        public static final String COLUMN_BYTES_READ = "bytes_read";
+
+        // All times are in milliseconds, summed over the locations of the sync.
+        // Time to open the connection
+        public static final String COLUMN_CONNECT_TIME = "connect_time";
+        // Time from opening the connection to having the response headers
+        public static final String COLUMN_FIRST_BYTE_TIME = "first_byte_time";
+        // Time spent waiting on the network while reading the body
+        public static final String COLUMN_DOWNLOAD_TIME = "download_time";
+        // Time spent parsing the body, not counting the time waiting on the network
+        public static final String COLUMN_PARSE_TIME = "parse_time";
+        // Time spent writing the forecast into the database
+        public static final String COLUMN_DB_TIME = "db_time";
+        // Time spent updating widgets, Muzei, the notification and wear.  This runs after the
+        // sync, so it is -1 until the fan-out has finished.
+        public static final String COLUMN_FAN_OUT_TIME = "fan_out_time";
+
+        public static Uri buildSyncMetricsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /* Inner class that defines the table contents of the 3-hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // There are about 40 points per location, so every column is a small integer, which
+        // SQLite stores in one to three bytes.  Values with a fractional part are stored as
+        // fixed-point numbers: multiply by the column's scale to store, divide to read.
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Hours since the epoch, in UTC.  Together with the location this is the row's key.
+        public static final String COLUMN_EPOCH_HOUR = "epoch_hour";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in hundredths of a degree Celsius
+        public static final String COLUMN_TEMP = "temp";
+        public static final int TEMP_SCALE = 100;
+        // Pressure in tenths of a hectopascal
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final int PRESSURE_SCALE = 10;
+        // Humidity in whole percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Windspeed in hundredths of a metre per second
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final int WIND_SPEED_SCALE = 100;
+        // Meteorological degrees (e.g, 0 is north, 180 is south), whole degrees
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters limiting a location's points to [start, end), in milliseconds
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static int toFixedPoint(double value, int scale) {
+            return (int) Math.round(value * scale);
+        }
+
+        public static double fromFixedPoint(int value, int scale) {
+            return (double) value / scale;
+        }
+
+        public static int toEpochHour(long millis) {
+            return (int) (millis / (1000 * 60 * 60));
+        }
+
+        public static long fromEpochHour(int epochHour) {
+            return epochHour * (1000L * 60 * 60);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @return the Uri of the points of a location from startMillis up to, but not including,
+         * endMillis
+         */
+        public static Uri buildHourlyLocationWithRange(
+                String locationSetting, long startMillis, long endMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startMillis))
+                    .appendQueryParameter(PARAM_END, Long.toString(endMillis)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the first epoch hour the Uri asks for, or Integer.MIN_VALUE if it has no start
+         */
+        public static int getStartHourFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            if (null != start && start.length() > 0)
+                // Round up, so a point is only included if it is inside the range
+                return toEpochHour(Long.parseLong(start) + 1000 * 60 * 60 - 1);
+            else
+                return Integer.MIN_VALUE;
+        }
+
+        /**
+         * @return the epoch hour after the last one the Uri asks for, or Integer.MAX_VALUE if it
+         * has no end
+         */
+        public static int getEndHourFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            if (null != end && end.length() > 0)
+                return toEpochHour(Long.parseLong(end) + 1000 * 60 * 60 - 1);
+            else
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the contents of the sync status record.  It isn't a table: the
+        provider keeps the single record in memory and saves it to disk in the background, so
+        the sync can set it as often as it needs to.  Observe CONTENT_URI to hear when the
+        status or the error changes.
+     */
+    public static final class SyncStatusEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATUS).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATUS;
+
+        // LOCATION_STATUS_* of the preferred location
+        public static final String COLUMN_STATUS = "status";
+        // When the status was last set, stored as long in milliseconds since the epoch
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+        // What went wrong, if the status is an error and we know more about it.  Otherwise null.
+        public static final String COLUMN_ERROR = "error";
+    }
 }
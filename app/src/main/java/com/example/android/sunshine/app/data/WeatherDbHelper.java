@@ -15,25 +15,120 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Manages a local database for weather data.
+ *
+ * On Honeycomb and higher devices the database uses write-ahead logging, so the loaders, the
+ * widgets and the watch keep reading while a sync writes.  Readers get their own connections
+ * from SQLite's pool, which the system sizes (4 connections on most devices, more than the
+ * three readers we have); apps can't change it.  How the log is checkpointed is set in
+ * integers.xml.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add
+    // the step that gets there to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    private final int mAutoCheckpointPages;
+    private final int mCheckpointAfterRows;
+    private boolean mWriteAheadLogging;
+    // Set when an upgrade had to drop the tables, until the provider asks for the refill
+    private boolean mRebuilt;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mAutoCheckpointPages = context.getResources().getInteger(R.integer.db_wal_autocheckpoint_pages);
+        mCheckpointAfterRows = context.getResources().getInteger(R.integer.db_wal_checkpoint_after_rows);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mWriteAheadLogging = db.isWriteAheadLoggingEnabled();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Before Jelly Bean it can only be turned on once the database is open
+            mWriteAheadLogging = !db.isReadOnly() && db.enableWriteAheadLogging();
+        }
+        if (mWriteAheadLogging && mAutoCheckpointPages > 0) {
+            // PRAGMAs that return a row can't go through execSQL
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages,
+                    null);
+        }
+    }
+
+    /**
+     * @return true if the database writes ahead to a log, so readers never wait for a writer
+     */
+    boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    /**
+     * Starts a write transaction.  With write-ahead logging, it doesn't hold readers up while
+     * it runs.
+     */
+    static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Copies a large write out of the log and back into the database right after it committed,
+     * rather than leaving that to whichever commit crosses the autocheckpoint next.  Readers
+     * aren't held up by it.  Inside a transaction the write hasn't been committed yet, so
+     * nothing is done.
+     */
+    void checkpointAfterWrite(SQLiteDatabase db, int rowsWritten) {
+        if (!mWriteAheadLogging || rowsWritten < mCheckpointAfterRows || db.inTransaction()) {
+            return;
+        }
+        // Without a mode the checkpoint is passive, and the mode can't be given before
+        // Jelly Bean's SQLite anyway
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+        if (cursor.moveToFirst()) {
+            Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                    + " log pages after writing " + rowsWritten + " rows");
+        }
+        cursor.close();
     }
 
     @Override
@@ -75,24 +170,97 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Location first, so the constraint's index is also the one every
+                // location's date range is read from.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // One row per sync, see SyncMetricsEntry for what each column measures
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_APP_VERSION + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_STATUS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_BYTES_READ + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_CONNECT_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_FIRST_BYTE_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DOWNLOAD_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_PARSE_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DB_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_FAN_OUT_TIME + " INTEGER NOT NULL DEFAULT -1" +
+                " );";
+
+        // The 3-hourly points hold nothing but small integers, see HourlyEntry for the scale of
+        // each column.  The UNIQUE constraint doubles as the index the range queries read.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_EPOCH_HOUR + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_EPOCH_HOUR + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+
+        // Any ids or results remembered from an earlier database are gone with it
+        LocationIdCache.invalidate();
+        WeatherQueryCache.invalidate();
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        if (WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // The schema couldn't be migrated.  This database is only a cache for online data, so
+        // we can still discard the data and start over.  A failed step can leave tables of its
+        // own behind, so everything is dropped, not just the tables we know about.
+        dropAllTables(sqLiteDatabase);
         onCreate(sqLiteDatabase);
+        mRebuilt = true;
+    }
+
+    /**
+     * Drops every table but SQLite's and Android's own.
+     */
+    private static void dropAllTables(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' "
+                + "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (cursor.moveToNext()) {
+            tables.add(cursor.getString(0));
+        }
+        cursor.close();
+        for (String table : tables) {
+            db.execSQL("DROP TABLE IF EXISTS \"" + table + "\"");
+        }
+    }
+
+    /**
+     * @return true, once, if opening the database dropped its tables because the schema
+     * couldn't be migrated.  Nothing is refilled from here, since this runs while the database
+     * is still being opened.
+     */
+    synchronized boolean takeRebuilt() {
+        boolean rebuilt = mRebuilt;
+        mRebuilt = false;
+        return rebuilt;
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The steps that bring a database from an older schema up to the current one, keeping the
+ * forecasts it holds.  Throwing the database away instead would send every device back to the
+ * network for a full sync as soon as it updates the app.
+ *
+ * Each {@link Migration} moves the schema up exactly one version, and they are run in order.
+ * SQLiteOpenHelper calls onUpgrade inside a transaction, so nobody ever sees a half-migrated
+ * database.  A step writes the schema as it was at its version, never the one onCreate writes
+ * today, so that later steps still find what they expect.
+ *
+ * Each step has a time budget.  Going over it doesn't undo the step, but is logged, and the
+ * migration tests hold every step to its budget on a populated database.
+ */
+final class WeatherDbMigrations {
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    // The first query waits for the upgrade, so a step should be over in a blink
+    static final long DEFAULT_BUDGET_MILLIS = 250;
+
+    /**
+     * Upgrades the schema from {@link #fromVersion} to the version after it.
+     */
+    abstract static class Migration {
+        final int fromVersion;
+        final long budgetMillis;
+
+        Migration(int fromVersion, long budgetMillis) {
+            this.fromVersion = fromVersion;
+            this.budgetMillis = budgetMillis;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    static final Migration[] MIGRATIONS = {
+            // Version 3 records what each sync costs
+            new Migration(2, DEFAULT_BUDGET_MILLIS) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                            SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_APP_VERSION + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_STATUS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_BYTES_READ + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_CONNECT_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_FIRST_BYTE_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_DOWNLOAD_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_PARSE_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_DB_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_FAN_OUT_TIME + " INTEGER NOT NULL DEFAULT -1" +
+                            " );");
+                }
+            },
+            // Version 4 keeps the 3-hourly forecast
+            new Migration(3, DEFAULT_BUDGET_MILLIS) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                            HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_EPOCH_HOUR + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                            HourlyEntry.COLUMN_EPOCH_HOUR + ") ON CONFLICT REPLACE);");
+                }
+            },
+            // Version 5 puts the location first in the weather table's unique index.  SQLite
+            // can't change a constraint in place, so the table is rebuilt, keeping every _ID.
+            new Migration(4, DEFAULT_BUDGET_MILLIS) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " +
+                            WeatherEntry.TABLE_NAME + "_v4");
+                    db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                    // Same columns in the same order, so the rows copy across as they are
+                    db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " SELECT * FROM " +
+                            WeatherEntry.TABLE_NAME + "_v4");
+                    db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME + "_v4");
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * @return the step that upgrades the schema from the version, or null if there is none
+     */
+    static Migration find(int fromVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.fromVersion == fromVersion) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs every step from oldVersion up to newVersion.  Must be called inside the upgrade's
+     * transaction.
+     *
+     * @return true if the schema is now at newVersion.  false if a step is missing or failed,
+     * in which case the database has to be rebuilt.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        long start = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            Migration migration = find(version);
+            if (migration == null) {
+                Log.w(LOG_TAG, "No migration from version " + version);
+                return false;
+            }
+
+            long stepStart = SystemClock.elapsedRealtime();
+            try {
+                migration.migrate(db);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Migration from version " + version + " failed", e);
+                return false;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - stepStart;
+            if (elapsed > migration.budgetMillis) {
+                Log.w(LOG_TAG, "Migration from version " + version + " took " + elapsed
+                        + "ms, over its budget of " + migration.budgetMillis + "ms");
+            }
+        }
+        Log.d(LOG_TAG, "Migrated from version " + oldVersion + " to " + newVersion + " in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * What a bulk insert of weather actually changed, once every incoming day has been compared
+ * with the day already stored for the same location and date.
+ */
+class WeatherDiff {
+    int inserted;
+    int updated;
+    int unchanged;
+    int pruned;
+    // Columns written by inserts and updates together, to show how much the diff saved
+    int columnsWritten;
+
+    /**
+     * @return the number of days that were new or differed in any value
+     */
+    int getChangedDays() {
+        return inserted + updated;
+    }
+
+    @Override
+    public String toString() {
+        return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged, "
+                + pruned + " pruned, " + columnsWritten + " columns written";
+    }
+}
@@ -17,95 +17,212 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Created on first use, so the provider doesn't read it from disk when it starts
+    private SyncStatusStore mSyncStatus;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
-
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
-
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
-    }
-
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
-
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
-
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+    static final int SYNC_METRICS = 400;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int SYNC_STATUS = 600;
+
+    // A write that changes more of a location's days than this notifies the location instead
+    // of each day
+    static final int MAX_DAY_NOTIFICATIONS = 3;
+
+    // Uris changed by the batch running on this thread.  They are notified once the batch has
+    // been committed, instead of once per operation.
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherWithLocationTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    // The location columns a projection can ask for, which only the location table has
+    private static final String[] sLocationColumns = {
+            WeatherContract.LocationEntry.TABLE_NAME + ".",
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The location setting is resolved to its row id before the weather is read, so these
+    // read a range of the (location_id, date) index instead of filtering the join
+
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND weather.date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND weather.date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
-
-        String[] selectionArgs;
-        String selection;
-
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
-        } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
-        }
+        return queryWeatherByLocationSetting(WEATHER_WITH_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                WeatherContract.WeatherEntry.getStartDateFromUri(uri),
+                projection, sortOrder);
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    //      AND epoch_hour >= ? AND epoch_hour < ?
+    // The location is looked up once by the subquery, so the points are read straight off the
+    // (location_id, epoch_hour) index without a join.
+    private static final String sHourlyLocationSettingWithRangeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return getReadableDatabase().query(
+                WeatherContract.HourlyEntry.TABLE_NAME,
                 projection,
-                selection,
-                selectionArgs,
+                sHourlyLocationSettingWithRangeSelection,
+                new String[]{WeatherContract.HourlyEntry.getLocationSettingFromUri(uri),
+                        Integer.toString(WeatherContract.HourlyEntry.getStartHourFromUri(uri)),
+                        Integer.toString(WeatherContract.HourlyEntry.getEndHourFromUri(uri))},
                 null,
                 null,
-                sortOrder
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " ASC"
         );
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        return queryWeatherByLocationSetting(WEATHER_WITH_LOCATION_AND_DATE,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                WeatherContract.WeatherEntry.getDateFromUri(uri),
+                projection, sortOrder);
+    }
+
+    /**
+     * Answers a weather-by-location query from the {@link WeatherQueryCache}, or reads the
+     * location's days and keeps the result there.
+     *
+     * @param date the day for WEATHER_WITH_LOCATION_AND_DATE, otherwise the first day, or 0
+     *             for all of them
+     */
+    private Cursor queryWeatherByLocationSetting(int match, String locationSetting, long date,
+                                                 String[] projection, String sortOrder) {
+        WeatherQueryCache.Key key = new WeatherQueryCache.Key(
+                match, locationSetting, date, projection, sortOrder);
+        Cursor cursor = WeatherQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = WeatherQueryCache.getGeneration();
+        SQLiteDatabase db = getReadableDatabase();
+        // A setting that isn't stored resolves to -1, which matches no days
+        long locationId = LocationIdCache.get(locationSetting);
+        if (locationId == -1) {
+            locationId = getLocationId(db, locationSetting);
+        }
+
+        String[] selectionArgs = match == WEATHER_WITH_LOCATION && date == 0
+                ? new String[]{Long.toString(locationId)}
+                : new String[]{Long.toString(locationId), Long.toString(date)};
+        cursor = db.rawQuery(buildWeatherByLocationQuery(match, date, projection, sortOrder),
+                selectionArgs);
+        return WeatherQueryCache.put(key, generation, locationId, cursor);
+    }
+
+    /**
+     * Builds the query for a location's days, which takes the location id and then the date,
+     * if there is one, as its arguments.
+     *
+     * It reads only the weather table, unless the projection or sort order asks for location
+     * columns.  Those are then joined on the location's primary key, one lookup per day.
+     */
+    static String buildWeatherByLocationQuery(int match, long date, String[] projection,
+                                              String sortOrder) {
+        String selection;
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            selection = sLocationIdAndDaySelection;
+        } else if (date == 0) {
+            selection = sLocationIdSelection;
+        } else {
+            selection = sLocationIdWithStartDateSelection;
+        }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        boolean needsLocation = projection == null || usesLocationColumns(sortOrder);
+        if (projection != null) {
+            for (String column : projection) {
+                needsLocation |= usesLocationColumns(column);
+            }
+        }
+        return SQLiteQueryBuilder.buildQueryString(false,
+                needsLocation ? sWeatherWithLocationTables : WeatherContract.WeatherEntry.TABLE_NAME,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                selection,
                 null,
                 null,
-                sortOrder
-        );
+                sortOrder,
+                null);
+    }
+
+    private static boolean usesLocationColumns(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        for (String column : sLocationColumns) {
+            if (sql.contains(column)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /*
@@ -130,6 +247,13 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATUS, SYNC_STATUS);
         return matcher;
     }
 
@@ -143,6 +267,33 @@ public class WeatherProvider extends ContentProvider {
         return true;
     }
 
+    private SQLiteDatabase getReadableDatabase() {
+        return refillIfRebuilt(mOpenHelper.getReadableDatabase());
+    }
+
+    private SQLiteDatabase getWritableDatabase() {
+        return refillIfRebuilt(mOpenHelper.getWritableDatabase());
+    }
+
+    /**
+     * If opening the database had to drop its tables, fills them back in from the responses
+     * we already downloaded, rather than waiting for the network.  Only requested once the
+     * database is open, since requesting a sync can set up the sync account.
+     */
+    private SQLiteDatabase refillIfRebuilt(SQLiteDatabase db) {
+        if (mOpenHelper.takeRebuilt()) {
+            SunshineSyncAdapter.syncFromCache(getContext());
+        }
+        return db;
+    }
+
+    private synchronized SyncStatusStore getSyncStatus() {
+        if (mSyncStatus == null) {
+            mSyncStatus = new SyncStatusStore(getContext());
+        }
+        return mSyncStatus;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +315,13 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case SYNC_STATUS:
+                return WeatherContract.SyncStatusEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -189,7 +347,7 @@ public class WeatherProvider extends ContentProvider {
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -202,7 +360,7 @@ public class WeatherProvider extends ContentProvider {
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = getReadableDatabase().query(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -213,6 +371,42 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_status"
+            case SYNC_STATUS: {
+                retCursor = getSyncStatus().query(projection);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -226,7 +420,7 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
@@ -238,26 +432,62 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                WeatherQueryCache.invalidateWeather(locationId, date, date);
+                notifyWeatherChange(db, locationId, Collections.singletonList(date));
+                return returnUri;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                // Inserting a location setting we already have updates it instead, so the
+                // sync can add its location without checking first.  A location written before
+                // is found in the cache, without looking its row up.
+                String locationSetting = values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id = LocationIdCache.get(locationSetting);
+                if (_id == -1) {
+                    _id = getLocationId(db, locationSetting);
+                }
+                if (_id == -1) {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                } else if (updateLocationIfChanged(db, _id, values) == 0) {
+                    // Nothing was written, so there's nobody to tell
+                    LocationIdCache.put(locationSetting, _id);
+                    return WeatherContract.LocationEntry.buildLocationUri(_id);
+                }
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    LocationIdCache.put(locationSetting, _id);
+                    // Results read before the row existed, or holding its old columns
+                    WeatherQueryCache.invalidateLocation(locationSetting);
+                } else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case SYNC_METRICS: {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.SyncMetricsEntry.buildSyncMetricsUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Keep the table bounded: ids only grow, so everything below the newest
+                // MAX_ROWS ids is old
+                db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        WeatherContract.SyncMetricsEntry._ID + " <= ?",
+                        new String[]{Long.toString(
+                                _id - WeatherContract.SyncMetricsEntry.MAX_ROWS)});
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
@@ -266,33 +496,100 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                WeatherQueryCache.invalidate();
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                LocationIdCache.invalidate();
+                WeatherQueryCache.invalidate();
+                break;
+            case SYNC_METRICS:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * @return the row id of the location setting, or -1 if it isn't in the location table
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        if (locationSetting == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the values into the location row, unless it already holds all of them.
+     *
+     * @return the number of rows written, 0 if nothing changed
+     */
+    private int updateLocationIfChanged(SQLiteDatabase db, long id, ContentValues values) {
+        StringBuilder unchanged = new StringBuilder();
+        ArrayList<String> selectionArgs = new ArrayList<String>(values.size() + 1);
+        selectionArgs.add(Long.toString(id));
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (unchanged.length() > 0) {
+                unchanged.append(" AND ");
+            }
+            if (entry.getValue() == null) {
+                unchanged.append(entry.getKey()).append(" IS NULL");
+            } else {
+                // The column's affinity turns the string argument back into a number where
+                // needed
+                unchanged.append(entry.getKey()).append(" = ?");
+                selectionArgs.add(entry.getValue().toString());
+            }
+        }
+        String selection = WeatherContract.LocationEntry._ID + " = ?";
+        if (unchanged.length() > 0) {
+            selection += " AND NOT (" + unchanged + ")";
+        }
+        return db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]));
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            long normalizedDate = WeatherContract.normalizeDate(dateValue);
+            // The sync hands over dates that are already normalized, so most of the time there
+            // is nothing to box and put back
+            if (normalizedDate != dateValue) {
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, normalizedDate);
+            }
         }
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
@@ -301,47 +598,400 @@ public class WeatherProvider extends ContentProvider {
                 normalizeDate(values);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                WeatherQueryCache.invalidate();
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // The update may have changed which setting a row belongs to
+                LocationIdCache.invalidate();
+                WeatherQueryCache.invalidate();
+                break;
+            case SYNC_METRICS:
+                rowsUpdated = db.update(WeatherContract.SyncMetricsEntry.TABLE_NAME, values,
+                        selection, selectionArgs);
+                break;
+            case SYNC_STATUS:
+                // The record is always updated, but only a new status or error is news
+                rowsUpdated = getSyncStatus().update(values) ? 1 : 0;
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                return writeWeather(db, values, uri.getQueryParameter(
+                        WeatherContract.WeatherEntry.PARAM_REPLACE_WINDOW) != null).getChangedDays();
+            case HOURLY:
+                return writeHourly(db, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes days of weather by comparing each one with the day stored for the same location and
+     * date, all in one transaction.  New days are inserted through one compiled statement,
+     * days that differ have just their changed columns updated in place, so they keep their
+     * _ID, and identical days aren't touched at all.
+     *
+     * @param replaceWindow also delete every day older than the first day written
+     */
+    private WeatherDiff writeWeather(SQLiteDatabase db, ContentValues[] values,
+                                     boolean replaceWindow) {
+        Map<Long, List<ContentValues>> daysByLocation = new HashMap<Long, List<ContentValues>>();
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues value : values) {
+            normalizeDate(value);
+            firstDate = Math.min(firstDate,
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            List<ContentValues> days = daysByLocation.get(locationId);
+            if (days == null) {
+                days = new ArrayList<ContentValues>();
+                daysByLocation.put(locationId, days);
+            }
+            days.add(value);
+        }
+
+        WeatherDiff diff = new WeatherDiff();
+        Map<Long, List<Long>> changedDates = new HashMap<Long, List<Long>>();
+        List<Long> prunedLocations = new ArrayList<Long>();
+        BulkInsertStatement insert = new BulkInsertStatement(db,
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            for (Map.Entry<Long, List<ContentValues>> entry : daysByLocation.entrySet()) {
+                List<Long> changed = writeLocationWeather(db, insert, entry.getKey(),
+                        entry.getValue(), diff);
+                if (!changed.isEmpty()) {
+                    changedDates.put(entry.getKey(), changed);
+                }
+            }
+            if (replaceWindow && firstDate != Long.MAX_VALUE) {
+                // delete old data so we don't build up an endless history
+                prunedLocations = getLocationIdsBefore(db, firstDate);
+                diff.pruned = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(firstDate)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        Log.d(LOG_TAG, "Wrote weather: " + diff + ", query cache: " + WeatherQueryCache.getStats());
+        // Only once the days are committed, so no reader can put the old ones back
+        for (Map.Entry<Long, List<Long>> entry : changedDates.entrySet()) {
+            WeatherQueryCache.invalidateWeather(entry.getKey(),
+                    Collections.min(entry.getValue()), Collections.max(entry.getValue()));
+        }
+        if (diff.pruned > 0) {
+            WeatherQueryCache.invalidateWeatherBefore(firstDate);
+        }
+        mOpenHelper.checkpointAfterWrite(db, diff.inserted + diff.updated + diff.pruned);
+
+        for (Long locationId : prunedLocations) {
+            // The days that are gone could be anywhere before the window, so the whole location
+            // is news
+            changedDates.put(locationId, null);
+        }
+        for (Map.Entry<Long, List<Long>> entry : changedDates.entrySet()) {
+            notifyWeatherChange(db, entry.getKey(), entry.getValue());
+        }
+        return diff;
+    }
+
+    /**
+     * @return the locations holding any day before the date
+     */
+    private static List<Long> getLocationIdsBefore(SQLiteDatabase db, long date) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(date)},
+                null,
+                null,
+                null,
+                null);
+        try {
+            List<Long> locationIds = new ArrayList<Long>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+            return locationIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Notifies the Uris of the location's days that changed, so only the observers of those
+     * days, and of the location's list, hear about it.  When more days changed than are worth
+     * a notification each, the location's Uri is notified once instead, which reaches all of
+     * its days.
+     *
+     * @param dates the days that changed, or null if any of them may have
+     */
+    private void notifyWeatherChange(SQLiteDatabase db, long locationId, List<Long> dates) {
+        String locationSetting = getLocationSetting(db, locationId);
+        if (locationSetting == null) {
+            // Without the setting there's no narrower Uri to notify
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        } else if (dates == null || dates.size() > MAX_DAY_NOTIFICATIONS) {
+            notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        } else {
+            for (Long date : dates) {
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, date));
+            }
+        }
+    }
+
+    /**
+     * @return the location setting of the location row, or null if there is no such row
+     */
+    private static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Diffs one location's days against what is stored for it, reading the stored days with a
+     * single query.
+     *
+     * @return the dates of the days inserted or updated
+     */
+    private List<Long> writeLocationWeather(SQLiteDatabase db, BulkInsertStatement insert,
+                                      Long locationId, List<ContentValues> days,
+                                      WeatherDiff diff) {
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues day : days) {
+            firstDate = Math.min(firstDate, day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{String.valueOf(locationId), Long.toString(firstDate)},
+                null,
+                null,
+                null);
+        List<Long> changed = new ArrayList<Long>();
+        try {
+            // Remember where each stored day is, rather than copying it out of the cursor, so its
+            // values can still be read with their own types
+            int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Map<Long, Integer> positions = new HashMap<Long, Integer>();
+            while (cursor.moveToNext()) {
+                positions.put(cursor.getLong(dateIndex), cursor.getPosition());
+            }
+
+            int idIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            for (ContentValues day : days) {
+                Integer position = positions.get(
+                        day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                if (position == null) {
+                    if (insert.insert(day) != -1) {
+                        diff.inserted++;
+                        diff.columnsWritten += day.size();
+                        changed.add(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                    }
+                    continue;
+                }
+                cursor.moveToPosition(position);
+                ContentValues changedColumns = getChangedColumns(cursor, day);
+                if (changedColumns.size() == 0) {
+                    diff.unchanged++;
+                    continue;
+                }
+                db.update(WeatherContract.WeatherEntry.TABLE_NAME, changedColumns,
+                        WeatherContract.WeatherEntry._ID + " = ?",
+                        new String[]{cursor.getString(idIndex)});
+                diff.updated++;
+                diff.columnsWritten += changedColumns.size();
+                changed.add(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changed;
+    }
+
+    /**
+     * @return the values that differ from the cursor's current row
+     */
+    private static ContentValues getChangedColumns(Cursor cursor, ContentValues values) {
+        ContentValues changed = new ContentValues();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = cursor.getColumnIndex(entry.getKey());
+            Object value = entry.getValue();
+            boolean same;
+            if (index == -1) {
+                // Let the update fail the way an insert would
+                same = false;
+            } else if (value == null) {
+                same = cursor.isNull(index);
+            } else if (value instanceof Number) {
+                same = !cursor.isNull(index)
+                        && cursor.getDouble(index) == ((Number) value).doubleValue();
+            } else {
+                same = value.toString().equals(cursor.getString(index));
+            }
+            if (!same) {
+                putValue(changed, entry.getKey(), value);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Copies a value keeping its type, which ContentValues has no single method for.
+     */
+    private static void putValue(ContentValues values, String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof Long) {
+            values.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
+        } else {
+            values.put(key, value.toString());
+        }
+    }
+
+    /**
+     * Writes 3-hourly points, replacing any stored point of the same location and hour, and
+     * deletes the points that are already in the past, all in one transaction.
+     *
+     * @return the number of points written
+     */
+    private int writeHourly(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+        int pruned;
+        BulkInsertStatement insert = new BulkInsertStatement(db,
+                WeatherContract.HourlyEntry.TABLE_NAME,
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+                WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                WeatherContract.HourlyEntry.COLUMN_TEMP,
+                WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                WeatherContract.HourlyEntry.COLUMN_DEGREES);
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            for (ContentValues value : values) {
+                long _id = insert.insert(value);
+                if (_id != -1) {
+                    returnCount++;
+                }
+            }
+            // Keep the point covering the current 3 hours, drop everything before it
+            int firstHour = WeatherContract.HourlyEntry.toEpochHour(System.currentTimeMillis()) - 3;
+            pruned = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ?",
+                    new String[]{Integer.toString(firstHour)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        mOpenHelper.checkpointAfterWrite(db, returnCount + pruned);
+        if (returnCount > 0 || pruned > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Applies the whole batch in a single transaction, so readers never see half of it and the
+     * journal is only written once.  Change notifications are held back until the batch has
+     * been committed, and each Uri is only notified once.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = getWritableDatabase();
+        Set<Uri> notifications = new LinkedHashSet<Uri>();
+        mPendingNotifications.set(notifications);
+        ContentProviderResult[] results = null;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+            if (results == null) {
+                // Location ids handed out inside the batch were rolled back with it
+                LocationIdCache.invalidate();
+            }
+        }
+        boolean weatherChanged = false;
+        for (Uri uri : notifications) {
+            int match = sUriMatcher.match(uri);
+            weatherChanged |= match == WEATHER || match == WEATHER_WITH_LOCATION
+                    || match == WEATHER_WITH_LOCATION_AND_DATE || match == LOCATION;
+        }
+        if (weatherChanged) {
+            // The operations dropped their results before the batch was committed, so a reader
+            // may have put the old rows back since
+            WeatherQueryCache.invalidate();
+        }
+        for (Uri uri : notifications) {
+            notifyChange(uri);
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
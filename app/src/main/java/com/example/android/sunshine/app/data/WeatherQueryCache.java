@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the provider's weather-by-location queries in memory.  Right after a
+ * sync the forecast list, both widgets, Muzei, the notification and the wearable all ask for
+ * the same location and day within a few seconds, and each of them would otherwise run the
+ * weather and location join again.
+ *
+ * A result is kept for one location setting, date, projection and sort order, along with the
+ * location row it was read for.  The provider drops exactly the results a write can have
+ * changed, once the write has been committed.  A result read while any write was committing is
+ * not kept, since it may be older than the write.
+ *
+ * Results are copied into memory, which needs Cursor.getType, so nothing is cached before
+ * Honeycomb.  Like {@link LocationIdCache}, this only works because everything that writes the
+ * weather table goes through the provider in this process.
+ */
+final class WeatherQueryCache {
+
+    // A forecast list is two weeks; results much bigger than that aren't the reads that repeat
+    static final int MAX_ROWS = 64;
+    static final int MAX_ENTRIES = 32;
+
+    /**
+     * What a cached result was asked for.  The weather-by-location Uris ignore the selection,
+     * so it isn't part of the key.
+     */
+    static final class Key {
+        final int match;
+        final String locationSetting;
+        final long date;
+        final String[] projection;
+        final String sortOrder;
+
+        Key(int match, String locationSetting, long date, String[] projection,
+            String sortOrder) {
+            this.match = match;
+            this.locationSetting = locationSetting;
+            this.date = date;
+            // Copied, so the caller reusing its array can't change a key already in the cache
+            this.projection = projection != null ? projection.clone() : null;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return match == key.match
+                    && date == key.date
+                    && equal(locationSetting, key.locationSetting)
+                    && Arrays.equals(projection, key.projection)
+                    && equal(sortOrder, key.sortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = match;
+            result = 31 * result + (locationSetting != null ? locationSetting.hashCode() : 0);
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (sortOrder != null ? sortOrder.hashCode() : 0);
+            return result;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class Entry {
+        // -1 if the location setting wasn't in the location table when the result was read
+        final long locationId;
+        // A single day, or every day from date on (0 for all of them)
+        final boolean singleDay;
+        final long date;
+        final String[] columns;
+        final Object[][] rows;
+
+        Entry(long locationId, boolean singleDay, long date, String[] columns, Object[][] rows) {
+            this.locationId = locationId;
+            this.singleDay = singleDay;
+            this.date = date;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        boolean overlaps(long fromDate, long toDate) {
+            return singleDay ? date >= fromDate && date <= toDate : toDate >= date;
+        }
+    }
+
+    // In access order, so the least recently read result goes first
+    private static final LinkedHashMap<Key, Entry> sEntries =
+            new LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    // Moves on with every invalidation, so a result read across one can be recognised
+    private static long sGeneration;
+    private static int sHits;
+    private static int sMisses;
+    private static int sInvalidated;
+
+    private WeatherQueryCache() {
+    }
+
+    private static boolean isEnabled() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if there is none.  Every call returns
+     * a new cursor, which the caller closes as usual.
+     */
+    static Cursor get(Key key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (sEntries) {
+            entry = sEntries.get(key);
+            if (entry == null) {
+                sMisses++;
+                return null;
+            }
+            sHits++;
+        }
+        return newCursor(entry);
+    }
+
+    /**
+     * Read before querying the database, and handed back to {@link #put}.
+     */
+    static long getGeneration() {
+        synchronized (sEntries) {
+            return sGeneration;
+        }
+    }
+
+    /**
+     * Copies the result into the cache, unless it is too big or something was invalidated
+     * since generation was read.
+     *
+     * @return a cursor over the same result, to return in place of the one passed in, which
+     * may have been closed
+     */
+    static Cursor put(Key key, long generation, long locationId, Cursor cursor) {
+        if (!isEnabled() || cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        Entry entry = new Entry(locationId,
+                key.match == WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, key.date,
+                cursor.getColumnNames(), copyRows(cursor));
+        cursor.close();
+        synchronized (sEntries) {
+            if (generation == sGeneration) {
+                sEntries.put(key, entry);
+            }
+        }
+        return newCursor(entry);
+    }
+
+    private static Cursor newCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Object[][] copyRows(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        Object[][] rows = new Object[cursor.getCount()][];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+            }
+            rows[cursor.getPosition()] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Drops the results holding any of the location's days from fromDate to toDate.
+     */
+    static void invalidateWeather(long locationId, long fromDate, long toDate) {
+        synchronized (sEntries) {
+            sGeneration++;
+            Iterator<Entry> entries = sEntries.values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.locationId == locationId && entry.overlaps(fromDate, toDate)) {
+                    entries.remove();
+                    sInvalidated++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results holding any day before the date, of any location.
+     */
+    static void invalidateWeatherBefore(long date) {
+        synchronized (sEntries) {
+            sGeneration++;
+            Iterator<Entry> entries = sEntries.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().overlaps(Long.MIN_VALUE, date - 1)) {
+                    entries.remove();
+                    sInvalidated++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results read for the location setting, after its location row was written.
+     */
+    static void invalidateLocation(String locationSetting) {
+        synchronized (sEntries) {
+            sGeneration++;
+            Iterator<Key> keys = sEntries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (Key.equal(keys.next().locationSetting, locationSetting)) {
+                    keys.remove();
+                    sInvalidated++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every result, for writes that can't be narrowed down.
+     */
+    static void invalidate() {
+        synchronized (sEntries) {
+            sGeneration++;
+            sInvalidated += sEntries.size();
+            sEntries.clear();
+        }
+    }
+
+    static int getHitCount() {
+        synchronized (sEntries) {
+            return sHits;
+        }
+    }
+
+    static int getMissCount() {
+        synchronized (sEntries) {
+            return sMisses;
+        }
+    }
+
+    static int getInvalidatedCount() {
+        synchronized (sEntries) {
+            return sInvalidated;
+        }
+    }
+
+    /**
+     * @return the share of queries answered from memory, 0 before the first one
+     */
+    static float getHitRate() {
+        synchronized (sEntries) {
+            int lookups = sHits + sMisses;
+            return lookups == 0 ? 0 : (float) sHits / lookups;
+        }
+    }
+
+    static String getStats() {
+        synchronized (sEntries) {
+            return sEntries.size() + " results, " + sHits + " hits, " + sMisses + " misses ("
+                    + Math.round(getHitRate() * 100) + "% hit rate), " + sInvalidated
+                    + " invalidated";
+        }
+    }
+}
@@ -63,6 +63,9 @@ public class AndroidWearableListenerService extends WearableListenerService {
         super.onMessageReceived(messageEvent);
         Log.d(LOG_TAG, "onMessageReceived()");
 
+        // A watch is showing our weather, so the sync scheduler shouldn't let it go stale
+        SyncScheduler.recordWearRequest(this);
+
         // start the sync process
         //SunshineSyncAdapter.syncImmediately(this);
         getWeather();
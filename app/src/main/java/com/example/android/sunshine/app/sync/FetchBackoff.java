@@ -0,0 +1,98 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Decides whether a sync may go to the network after forecast fetches have been failing.
+ *
+ * Every failure in a row doubles the wait before the next attempt, starting at
+ * {@link #BASE_DELAY_MILLIS} and capped at {@link #MAX_DELAY_MILLIS}.  The wait is jittered, so
+ * devices that all lost the server at the same time don't all come back at the same time.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens: nothing goes to the
+ * network for {@link #COOL_DOWN_MILLIS}.  Once that has passed a single attempt is let through,
+ * and either closes the circuit again or reopens it for another cool-down.
+ *
+ * The state is kept in its own preferences file with wall clock times, so it survives the
+ * process being killed and the device being rebooted.
+ */
+class FetchBackoff {
+    private static final String LOG_TAG = FetchBackoff.class.getSimpleName();
+
+    static final String PREFS_NAME = "fetch_backoff";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_NEXT_ATTEMPT = "next_attempt";
+
+    static final long BASE_DELAY_MILLIS = 1000 * 30;
+    static final long MAX_DELAY_MILLIS = 1000 * 60 * 15;
+    static final int FAILURE_THRESHOLD = 5;
+    static final long COOL_DOWN_MILLIS = 1000 * 60 * 30;
+
+    private static final Random sRandom = new Random();
+
+    private final SharedPreferences mPrefs;
+
+    FetchBackoff(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the wall clock time before which we shouldn't go to the network, or 0 if we can
+     * go right away
+     */
+    long getNextAttemptTime() {
+        long nextAttempt = mPrefs.getLong(KEY_NEXT_ATTEMPT, 0);
+        long now = System.currentTimeMillis();
+        // No wait is ever longer than the cool-down, so anything further out means the clock
+        // was set back since the failure
+        if (nextAttempt <= now || nextAttempt - now > COOL_DOWN_MILLIS) {
+            return 0;
+        }
+        return nextAttempt;
+    }
+
+    boolean isCircuitOpen() {
+        return mPrefs.getInt(KEY_FAILURES, 0) >= FAILURE_THRESHOLD && getNextAttemptTime() != 0;
+    }
+
+    /**
+     * The server answered, so start over.
+     */
+    void onSuccess() {
+        if (mPrefs.getInt(KEY_FAILURES, 0) != 0) {
+            Log.d(LOG_TAG, "Server is back, clearing the backoff");
+            mPrefs.edit().clear().commit();
+        }
+    }
+
+    /**
+     * The server couldn't be reached or sent something we couldn't use.
+     *
+     * @return the wall clock time of the next attempt
+     */
+    long onFailure() {
+        int failures = mPrefs.getInt(KEY_FAILURES, 0) + 1;
+        long delay;
+        if (failures >= FAILURE_THRESHOLD) {
+            delay = COOL_DOWN_MILLIS;
+            Log.d(LOG_TAG, failures + " failures in a row, opening the circuit for "
+                    + delay / 1000 + "s");
+        } else {
+            long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (failures - 1));
+            // Wait somewhere between half and all of the ceiling
+            delay = ceiling / 2 + (long) (sRandom.nextDouble() * (ceiling / 2));
+            Log.d(LOG_TAG, failures + " failures in a row, backing off for " + delay / 1000 + "s");
+        }
+        long nextAttempt = System.currentTimeMillis() + delay;
+        // This runs on the sync thread and must be on disk before the process can be killed
+        mPrefs.edit()
+                .putInt(KEY_FAILURES, failures)
+                .putLong(KEY_NEXT_ATTEMPT, nextAttempt)
+                .commit();
+        return nextAttempt;
+    }
+}
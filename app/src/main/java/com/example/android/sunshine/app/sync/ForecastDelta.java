@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the days carried by a forecast delta push, see {@link ForecastDeltaService}.
+ *
+ * A push message is limited to 4kB, so a delta only carries the days that changed, each as a
+ * flat object with short names:
+ * <pre>
+ * [{"date": 1445126400000, "id": 500, "desc": "Rain", "max": 17.3, "min": 9.8,
+ *   "hum": 81, "pres": 1012.4, "wind": 4.6, "deg": 230}, ...]
+ * </pre>
+ * "date" is in milliseconds, like {@link WeatherContract.WeatherEntry#COLUMN_DATE}.
+ */
+class ForecastDelta {
+
+    static final String DELTA_DATE = "date";
+    static final String DELTA_WEATHER_ID = "id";
+    static final String DELTA_DESCRIPTION = "desc";
+    static final String DELTA_MAX = "max";
+    static final String DELTA_MIN = "min";
+    static final String DELTA_HUMIDITY = "hum";
+    static final String DELTA_PRESSURE = "pres";
+    static final String DELTA_WIND_SPEED = "wind";
+    static final String DELTA_WIND_DIRECTION = "deg";
+
+    private ForecastDelta() {
+    }
+
+    /**
+     * @return the weather ContentValues of each day in the delta.  The location key is left
+     * for the caller to fill in.
+     * @throws JSONException if a day is missing any of the fields we store
+     */
+    static List<ContentValues> parse(String daysJsonStr) throws JSONException {
+        JSONArray daysArray = new JSONArray(daysJsonStr);
+        List<ContentValues> days = new ArrayList<ContentValues>(daysArray.length());
+        for (int i = 0; i < daysArray.length(); i++) {
+            JSONObject day = daysArray.getJSONObject(i);
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(day.getLong(DELTA_DATE)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    day.getInt(DELTA_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    day.getDouble(DELTA_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    day.getDouble(DELTA_WIND_SPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    day.getDouble(DELTA_WIND_DIRECTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    day.getDouble(DELTA_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    day.getDouble(DELTA_MIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    day.getString(DELTA_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    day.getInt(DELTA_WEATHER_ID));
+            days.add(weatherValues);
+        }
+        return days;
+    }
+}
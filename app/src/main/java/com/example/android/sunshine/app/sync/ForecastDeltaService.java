@@ -0,0 +1,123 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.util.List;
+
+/**
+ * Applies a forecast delta pushed by the server straight to the weather table, so a change to
+ * the forecast reaches the app without waiting for, or paying for, a full sync.
+ *
+ * The delta only carries the days that changed, see {@link ForecastDelta}.  They go through the
+ * same diffing bulk insert as a sync, so days that turn out not to have changed aren't written
+ * and nothing is notified for them.  A delta that can't be applied, because it doesn't parse or
+ * is for a location that has never been synced, falls back to a full sync.
+ */
+public class ForecastDeltaService extends IntentService {
+    private static final String LOG_TAG = ForecastDeltaService.class.getSimpleName();
+
+    // The push message type of a forecast delta
+    public static final String MESSAGE_TYPE_FORECAST_DELTA = "forecast_delta";
+
+    public static final String EXTRA_TYPE = "type";
+    public static final String EXTRA_LOCATION = "location";
+    public static final String EXTRA_DAYS = "days";
+
+    public ForecastDeltaService() {
+        super("ForecastDeltaService");
+    }
+
+    /**
+     * Queues the delta in the push message's extras to be applied off the main thread.
+     */
+    public static void start(Context context, Bundle extras) {
+        context.startService(new Intent(context, ForecastDeltaService.class).putExtras(extras));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Bundle extras = intent.getExtras();
+        if (extras == null || applyDelta(this, extras) < 0) {
+            Log.d(LOG_TAG, "Couldn't apply the forecast delta, falling back to a full sync");
+            SunshineSyncAdapter.syncImmediately(this);
+        }
+    }
+
+    /**
+     * Writes the days of the delta for its location.
+     *
+     * @return the number of days that were new or changed, or -1 if the delta couldn't be applied
+     */
+    static int applyDelta(Context context, Bundle extras) {
+        String locationSetting = extras.getString(EXTRA_LOCATION);
+        String daysJsonStr = extras.getString(EXTRA_DAYS);
+        if (locationSetting == null || daysJsonStr == null) {
+            Log.w(LOG_TAG, "Forecast delta without a location or days: " + extras);
+            return -1;
+        }
+
+        List<ContentValues> days;
+        try {
+            days = ForecastDelta.parse(daysJsonStr);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Unreadable forecast delta for " + locationSetting, e);
+            return -1;
+        }
+
+        // A delta doesn't carry the city, so it can only update a location we already have
+        long locationId = getLocationId(context, locationSetting);
+        if (locationId == -1) {
+            Log.d(LOG_TAG, "Forecast delta for unknown location " + locationSetting);
+            return -1;
+        }
+        for (ContentValues weatherValues : days) {
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+
+        int changedDays = context.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                days.toArray(new ContentValues[days.size()]));
+        SyncScheduler.recordPush(context);
+        if (changedDays > 0) {
+            // Setting the package ensures that only components in our app will receive the
+            // broadcast
+            context.sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setPackage(context.getPackageName()));
+        }
+        Log.d(LOG_TAG, "Forecast delta for " + locationSetting + ": " + days.size()
+                + " days pushed, " + changedDays + " changed");
+        return changedDays;
+    }
+
+    private static long getLocationId(Context context, String locationSetting) {
+        long locationId = LocationIdCache.get(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        if (cursor.moveToFirst()) {
+            locationId = cursor.getLong(0);
+        }
+        cursor.close();
+        return locationId;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Reads the OpenWeatherMap daily forecast response and hands each day to a {@link Listener}
+ * as soon as it has been read.
+ *
+ * On Honeycomb and higher devices the response is pulled straight off the stream with a
+ * {@link JsonReader}, so neither the raw body nor a JSONObject tree is ever held in memory.
+ * Older devices fall back to reading the body into a String and walking the JSONObject tree.
+ */
+class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure every field we store was present for a day
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_WEATHER = 1 << 6;
+    private static final int ALL_DAY_FIELDS = (1 << 7) - 1;
+
+    /**
+     * One day of forecast, exactly as the server sent it.
+     */
+    static class Day {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+
+        double high;
+        double low;
+
+        String description;
+        int weatherId;
+    }
+
+    /**
+     * Receives the parsed pieces of the forecast in the order they appear in the response.
+     */
+    interface Listener {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param index position of the day in the "list" array, 0 being the current day
+         */
+        void onDay(int index, Day day);
+    }
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Parses the forecast from the given stream.  The stream is not closed.
+     *
+     * @return the "cod" message code of the response, or HTTP_OK if the response didn't have one.
+     * Parsing stops as soon as an error code is seen.
+     * @throws IOException if the stream could not be read, including an empty stream.
+     * @throws JSONException if the response is not a forecast we understand.
+     */
+    static int parse(InputStream forecastStream, Listener listener)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(forecastStream, listener);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(forecastStream));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty forecast response");
+        }
+        return parse(buffer.toString(), listener);
+    }
+
+    /**
+     * Parses a forecast that has already been read into a String, by building the whole
+     * JSONObject tree first.
+     */
+    static int parse(String forecastJsonStr, Listener listener) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        listener.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            Day day = new Day();
+
+            day.pressure = dayForecast.getDouble(OWM_PRESSURE);
+            day.humidity = dayForecast.getInt(OWM_HUMIDITY);
+            day.windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            day.windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            day.description = weatherObject.getString(OWM_DESCRIPTION);
+            day.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            day.high = temperatureObject.getDouble(OWM_MAX);
+            day.low = temperatureObject.getDouble(OWM_MIN);
+
+            listener.onDay(i, day);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int parseStream(InputStream forecastStream, Listener listener)
+            throws IOException, JSONException {
+        // We don't close the reader: the stream belongs to the caller.
+        JsonReader reader = new JsonReader(new InputStreamReader(forecastStream, "UTF-8"));
+        int messageCode = HttpURLConnection.HTTP_OK;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is sent as a string on some responses, nextInt copes with both
+                    messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        return messageCode;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, listener);
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    int index = 0;
+                    while (reader.hasNext()) {
+                        listener.onDay(index++, readDay(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // Unexpected token types and unparseable numbers mean the server sent us something
+            // we don't understand, rather than the connection going away.
+            throw new JSONException(e.getMessage());
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY + " in forecast");
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Day readDay(JsonReader reader) throws IOException, JSONException {
+        Day day = new Day();
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                seen |= FIELD_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        day.high = reader.nextDouble();
+                        seen |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        day.low = reader.nextDouble();
+                        seen |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            day.description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = reader.nextInt();
+                            seen |= FIELD_WEATHER;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != ALL_DAY_FIELDS || day.description == null) {
+            throw new JSONException("Incomplete day in forecast");
+        }
+        return day;
+    }
+}
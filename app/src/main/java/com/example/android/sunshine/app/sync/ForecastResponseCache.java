@@ -0,0 +1,325 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last good forecast response for each location on disk, gzipped.
+ *
+ * A response younger than {@link #TTL_MILLIS} is fresh, and syncs asked for in quick succession
+ * (changing a setting, a watch asking for the weather) are served from it without going to the
+ * network.  Responses of any age can be replayed to rebuild the weather table without a refetch.
+ *
+ * Each response is stored with the time it was fetched, since the server dates its days from
+ * the day it answered, not the day the response is read back.
+ *
+ * The response is written while it is being parsed, see {@link Editor}, and only kept if the
+ * parse succeeded.  The cache is capped at {@link #MAX_SIZE_BYTES}, and the least recently
+ * written responses are evicted first.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "forecast_responses";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // How long a response can be served instead of going to the network
+    static final long TTL_MILLIS = 1000 * 60 * 20;
+    // A 14 day forecast is about 1.5kB gzipped, so this holds far more locations than anyone has
+    static final long MAX_SIZE_BYTES = 256 * 1024;
+
+    private final File mDirectory;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+
+    ForecastResponseCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * @return true if there is a response for the location that is younger than the TTL.
+     * Counted as a cache hit or miss.
+     */
+    boolean isFresh(String locationSetting) {
+        File file = getFile(locationSetting);
+        boolean fresh = file.exists()
+                && System.currentTimeMillis() - file.lastModified() < TTL_MILLIS;
+        if (fresh) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return fresh;
+    }
+
+    /**
+     * The server told us the response we have is still current, so it is fresh again.
+     */
+    void touch(String locationSetting) {
+        File file = getFile(locationSetting);
+        if (file.exists() && !file.setLastModified(System.currentTimeMillis())) {
+            Log.w(LOG_TAG, "Couldn't refresh the cached response for " + locationSetting);
+        }
+    }
+
+    /**
+     * @return the cached response for the location whatever its age, or null if there is none.
+     * The caller must close it.
+     */
+    CachedResponse open(String locationSetting) throws IOException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(new FileInputStream(getFile(locationSetting)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            long fetchTime = new DataInputStream(in).readLong();
+            return new CachedResponse(in, fetchTime);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the location settings that have a cached response, whatever its age
+     */
+    List<String> getLocationSettings() {
+        List<String> locationSettings = new ArrayList<String>();
+        String[] names = mDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(TEMP_SUFFIX)) {
+                    locationSettings.add(Uri.decode(name));
+                }
+            }
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Starts caching a new response for the location.  Nothing replaces the current response
+     * until {@link Editor#commit()} is called.
+     */
+    Editor edit(String locationSetting) {
+        return new Editor(locationSetting);
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    int getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return mHits.get() + " hits, " + mMisses.get() + " misses, "
+                + mEvictions.get() + " evictions";
+    }
+
+    private File getFile(String locationSetting) {
+        // Location settings are free text, so encode them into something safe for a file name
+        return new File(mDirectory, Uri.encode(locationSetting));
+    }
+
+    private synchronized void commit(File temp, File target) {
+        if (!temp.renameTo(target)) {
+            Log.w(LOG_TAG, "Couldn't save the response to " + target);
+            temp.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Deletes the oldest responses until the cache fits in {@link #MAX_SIZE_BYTES}.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_SIZE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= MAX_SIZE_BYTES) {
+                break;
+            }
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Still being written by another fetch
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A cached response body, along with when it was fetched.
+     */
+    static class CachedResponse extends GZIPInputStream {
+        private final long mFetchTime;
+
+        private CachedResponse(InputStream in, long fetchTime) throws IOException {
+            super(in);
+            mFetchTime = fetchTime;
+        }
+
+        /**
+         * @return when the response was fetched.  A 304 answer doesn't change this, because
+         * the response still holds the days it was first fetched with.
+         */
+        long getFetchTime() {
+            return mFetchTime;
+        }
+    }
+
+    /**
+     * Copies a response into the cache as it is read.  Failing to write the cache never fails
+     * the read: the response just isn't cached.
+     */
+    class Editor {
+        private final File mTarget;
+        private final File mTemp;
+        private OutputStream mOut;
+
+        private Editor(String locationSetting) {
+            mTarget = getFile(locationSetting);
+            mTemp = new File(mDirectory, mTarget.getName() + TEMP_SUFFIX);
+        }
+
+        /**
+         * @return a stream reading from {@code in} that also writes everything read to the cache
+         */
+        InputStream tee(InputStream in) {
+            try {
+                if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                    throw new IOException("Couldn't create " + mDirectory);
+                }
+                OutputStream file = new FileOutputStream(mTemp);
+                try {
+                    // Ahead of the compressed body, so it can be read without inflating anything
+                    new DataOutputStream(file).writeLong(System.currentTimeMillis());
+                    mOut = new GZIPOutputStream(file);
+                } catch (IOException e) {
+                    file.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Not caching the response", e);
+                return in;
+            }
+
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Not caching the response", e);
+                abort();
+            }
+        }
+
+        /**
+         * The response was parsed successfully, so keep it.
+         */
+        void commit() {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.close();
+                mOut = null;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Not caching the response", e);
+                abort();
+                return;
+            }
+            ForecastResponseCache.this.commit(mTemp, mTarget);
+        }
+
+        /**
+         * Throws away whatever was written.  Safe to call after {@link #commit()}.
+         */
+        void abort() {
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    // We're throwing it away anyway
+                }
+                mOut = null;
+            }
+            mTemp.delete();
+        }
+    }
+}
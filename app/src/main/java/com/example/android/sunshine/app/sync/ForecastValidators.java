@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.data.WeatherCalendar;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP validators (ETag and Last-Modified) of the last forecast we stored for a location
+ * setting.  Sending them back lets the server answer 304 Not Modified instead of the full
+ * forecast when nothing has changed.
+ *
+ * Validators are only good for the local day they were stored on: we date the forecast days
+ * relative to today, so an unchanged response still has to be re-read after midnight.
+ */
+class ForecastValidators {
+    static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_JULIAN_DAY = "julian_day:";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    final String etag;
+    final long lastModified;
+
+    private ForecastValidators(String etag, long lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the validators stored today for the location setting, or null if there are none.
+     */
+    static ForecastValidators load(Context context, String locationSetting) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getInt(KEY_JULIAN_DAY + locationSetting, 0) != getJulianToday()) {
+            return null;
+        }
+        String etag = prefs.getString(KEY_ETAG + locationSetting, null);
+        long lastModified = prefs.getLong(KEY_LAST_MODIFIED + locationSetting, 0);
+        if (etag == null && lastModified == 0) {
+            return null;
+        }
+        return new ForecastValidators(etag, lastModified);
+    }
+
+    /**
+     * Reads the validators off a response.  Must be called before the connection is disconnected.
+     */
+    static ForecastValidators fromResponse(HttpURLConnection urlConnection) {
+        return new ForecastValidators(urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getLastModified());
+    }
+
+    /**
+     * Remembers these validators once the forecast they came with has been stored.
+     */
+    void save(Context context, String locationSetting) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (etag == null && lastModified == 0) {
+            editor.remove(KEY_ETAG + locationSetting)
+                    .remove(KEY_LAST_MODIFIED + locationSetting)
+                    .remove(KEY_JULIAN_DAY + locationSetting);
+        } else {
+            editor.putString(KEY_ETAG + locationSetting, etag)
+                    .putLong(KEY_LAST_MODIFIED + locationSetting, lastModified)
+                    .putInt(KEY_JULIAN_DAY + locationSetting, getJulianToday());
+        }
+        // Nothing reads these before the next sync, so don't block this one on the disk write
+        editor.apply();
+    }
+
+    /**
+     * Turns the request into a conditional one.  Must be called before connecting.
+     */
+    void applyTo(HttpURLConnection urlConnection) {
+        if (etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != 0) {
+            urlConnection.setIfModifiedSince(lastModified);
+        }
+    }
+
+    private static int getJulianToday() {
+        return WeatherCalendar.getJulianToday();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Reads the OpenWeatherMap 3-hourly forecast response and hands each point to a
+ * {@link Listener} as soon as it has been read.  It works like {@link ForecastParser}: straight
+ * off the stream on Honeycomb and higher, through a JSONObject tree on older devices.
+ */
+class HourlyForecastParser {
+
+    // Each point of the forecast is an element of the "list" array, with the time in "dt" and
+    // most values in its "main" and "wind" objects.
+    static final String OWM_TIME = "dt";
+    static final String OWM_MAIN = "main";
+    static final String OWM_WIND = "wind";
+
+    // Bits used to make sure every field we store was present for a point
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WIND_SPEED = 1 << 4;
+    private static final int FIELD_WIND_DIRECTION = 1 << 5;
+    private static final int FIELD_WEATHER = 1 << 6;
+    private static final int ALL_POINT_FIELDS = (1 << 7) - 1;
+
+    /**
+     * One point of the forecast, exactly as the server sent it.
+     */
+    static class Point {
+        // Seconds since the epoch
+        long time;
+        double temperature;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        int weatherId;
+    }
+
+    interface Listener {
+        void onPoint(Point point);
+    }
+
+    private HourlyForecastParser() {
+    }
+
+    /**
+     * Parses the forecast from the given stream.  The stream is not closed.
+     *
+     * @return the "cod" message code of the response, or HTTP_OK if the response didn't have one.
+     * Parsing stops as soon as an error code is seen.
+     * @throws IOException if the stream could not be read, including an empty stream.
+     * @throws JSONException if the response is not a forecast we understand.
+     */
+    static int parse(InputStream forecastStream, Listener listener)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(forecastStream, listener);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(forecastStream));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+        if (buffer.length() == 0) {
+            throw new IOException("Empty forecast response");
+        }
+        return parse(buffer.toString(), listener);
+    }
+
+    static int parse(String forecastJsonStr, Listener listener) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        if (forecastJson.has(ForecastParser.OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(ForecastParser.OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray pointArray = forecastJson.getJSONArray(ForecastParser.OWM_LIST);
+        for (int i = 0; i < pointArray.length(); i++) {
+            JSONObject pointJson = pointArray.getJSONObject(i);
+            Point point = new Point();
+            point.time = pointJson.getLong(OWM_TIME);
+
+            JSONObject mainObject = pointJson.getJSONObject(OWM_MAIN);
+            point.temperature = mainObject.getDouble(ForecastParser.OWM_TEMPERATURE);
+            point.pressure = mainObject.getDouble(ForecastParser.OWM_PRESSURE);
+            point.humidity = mainObject.getInt(ForecastParser.OWM_HUMIDITY);
+
+            JSONObject windObject = pointJson.getJSONObject(OWM_WIND);
+            point.windSpeed = windObject.getDouble(ForecastParser.OWM_WINDSPEED);
+            point.windDirection = windObject.getDouble(ForecastParser.OWM_WIND_DIRECTION);
+
+            point.weatherId = pointJson.getJSONArray(ForecastParser.OWM_WEATHER)
+                    .getJSONObject(0).getInt(ForecastParser.OWM_WEATHER_ID);
+
+            listener.onPoint(point);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int parseStream(InputStream forecastStream, Listener listener)
+            throws IOException, JSONException {
+        // We don't close the reader: the stream belongs to the caller.
+        JsonReader reader = new JsonReader(new InputStreamReader(forecastStream, "UTF-8"));
+        int messageCode = HttpURLConnection.HTTP_OK;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ForecastParser.OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        return messageCode;
+                    }
+                } else if (ForecastParser.OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        listener.onPoint(readPoint(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Point readPoint(JsonReader reader) throws IOException, JSONException {
+        Point point = new Point();
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                point.time = reader.nextLong();
+                seen |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (ForecastParser.OWM_TEMPERATURE.equals(mainName)) {
+                        point.temperature = reader.nextDouble();
+                        seen |= FIELD_TEMPERATURE;
+                    } else if (ForecastParser.OWM_PRESSURE.equals(mainName)) {
+                        point.pressure = reader.nextDouble();
+                        seen |= FIELD_PRESSURE;
+                    } else if (ForecastParser.OWM_HUMIDITY.equals(mainName)) {
+                        point.humidity = (int) reader.nextDouble();
+                        seen |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (ForecastParser.OWM_WINDSPEED.equals(windName)) {
+                        point.windSpeed = reader.nextDouble();
+                        seen |= FIELD_WIND_SPEED;
+                    } else if (ForecastParser.OWM_WIND_DIRECTION.equals(windName)) {
+                        point.windDirection = reader.nextDouble();
+                        seen |= FIELD_WIND_DIRECTION;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (ForecastParser.OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (ForecastParser.OWM_WEATHER_ID.equals(reader.nextName())) {
+                            point.weatherId = reader.nextInt();
+                            seen |= FIELD_WEATHER;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != ALL_POINT_FIELDS) {
+            throw new JSONException("Incomplete point in forecast");
+        }
+        return point;
+    }
+}
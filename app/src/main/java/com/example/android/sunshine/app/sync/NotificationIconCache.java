@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the icons the notification and Android Wear show, already scaled to the size they are
+ * shown at.  A forecast only uses a handful of pictures, so after the first few days the
+ * notification never has to download or decode one again.
+ *
+ * Icons are kept in memory, up to {@link #MAX_MEMORY_BYTES}, and as PNGs on disk, up to
+ * {@link #MAX_DISK_ENTRIES}, so they survive the process being killed between daily
+ * notifications.  The least recently used icons are evicted first from both.
+ *
+ * An icon is keyed by where the picture comes from and the size it is scaled to, see
+ * {@link #getKey(String, int, int)}.  The art URL names the art pack as well as the weather
+ * condition, so switching packs never shows a stale picture, and weather ids that share a
+ * picture share an entry.
+ */
+class NotificationIconCache {
+    private static final String LOG_TAG = NotificationIconCache.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "notification_icons";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // A large icon is at most 64dp square, about 150kB at xxhdpi, so this holds the whole set
+    static final int MAX_MEMORY_BYTES = 2 * 1024 * 1024;
+    // Every picture of both packs at both sizes, with room to spare for a density change
+    static final int MAX_DISK_ENTRIES = 64;
+
+    private static NotificationIconCache sInstance;
+
+    private final File mDirectory;
+    private final LruCache<String, Bitmap> mMemory =
+            new LruCache<String, Bitmap>(MAX_MEMORY_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    // getByteCount() is only there from Honeycomb MR1
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    static synchronized NotificationIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NotificationIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    NotificationIconCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * @param source where the picture comes from: its URL, or the name of its resource
+     * @return the key of the picture scaled to width x height
+     */
+    static String getKey(String source, int width, int height) {
+        return width + "x" + height + "_" + source;
+    }
+
+    /**
+     * @return the icon, from memory or from disk, or null if it has to be made.  Counted as a
+     * hit or a miss.
+     */
+    Bitmap get(String key) {
+        Bitmap icon = mMemory.get(key);
+        if (icon != null) {
+            mMemoryHits.incrementAndGet();
+            return icon;
+        }
+
+        File file = getFile(key);
+        icon = file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+        if (icon == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mDiskHits.incrementAndGet();
+        mMemory.put(key, icon);
+        // Eviction goes by last use, not by when the icon was written
+        file.setLastModified(System.currentTimeMillis());
+        return icon;
+    }
+
+    /**
+     * Keeps the icon in memory and writes it to disk.  Failing to write it only means it is
+     * made again after the process dies.
+     */
+    void put(String key, Bitmap icon) {
+        mMemory.put(key, icon);
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Couldn't create " + mDirectory);
+            return;
+        }
+        File target = getFile(key);
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't write the icon " + key, e);
+            temp.delete();
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing " + temp, e);
+                }
+            }
+        }
+        commit(temp, target);
+    }
+
+    /**
+     * Forgets the icons kept in memory, as if the process had been restarted.
+     */
+    void evictMemory() {
+        mMemory.evictAll();
+    }
+
+    int getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    int getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return mMemoryHits.get() + " memory hits, " + mDiskHits.get() + " disk hits, "
+                + mMisses.get() + " misses";
+    }
+
+    private File getFile(String key) {
+        // Keys hold URLs, so encode them into something safe for a file name
+        return new File(mDirectory, Uri.encode(key));
+    }
+
+    private synchronized void commit(File temp, File target) {
+        if (!temp.renameTo(target)) {
+            Log.w(LOG_TAG, "Couldn't save the icon to " + target);
+            temp.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Deletes the least recently used icons until the cache fits in {@link #MAX_DISK_ENTRIES}.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        int count = files.length;
+        for (File file : files) {
+            if (count <= MAX_DISK_ENTRIES) {
+                break;
+            }
+            if (file.delete()) {
+                count--;
+            }
+        }
+    }
+}
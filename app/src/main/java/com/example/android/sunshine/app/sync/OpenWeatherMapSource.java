@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Builds the requests for the OpenWeatherMap forecast API.  The base URL can be pointed at
+ * anything that answers like OpenWeatherMap, such as a local stand-in for benchmarks.
+ */
+class OpenWeatherMapSource implements WeatherSource {
+
+    static final String DEFAULT_BASE_URL = "http://api.openweathermap.org/data/2.5/";
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String DAILY_PATH = "forecast/daily";
+    private static final String HOURLY_PATH = "forecast";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+
+    OpenWeatherMapSource() {
+        this(DEFAULT_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    OpenWeatherMapSource(String baseUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public HttpURLConnection openDailyForecast(String locationQuery) throws IOException {
+        return open(buildUri(DAILY_PATH, locationQuery)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .build());
+    }
+
+    @Override
+    public HttpURLConnection openHourlyForecast(String locationQuery) throws IOException {
+        return open(buildUri(HOURLY_PATH, locationQuery).build());
+    }
+
+    private Uri.Builder buildUri(String path, String locationQuery) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(path)
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey);
+    }
+
+    private static HttpURLConnection open(Uri uri) throws IOException {
+        HttpURLConnection urlConnection =
+                (HttpURLConnection) new URL(uri.toString()).openConnection();
+        urlConnection.setRequestMethod("GET");
+        return urlConnection;
+    }
+
+    @Override
+    public String toString() {
+        return "OpenWeatherMapSource{" + mBaseUrl + "}";
+    }
+}
@@ -2,9 +2,7 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
@@ -15,43 +13,45 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.ArtworkPrefetcher;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherCalendar;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.wearable.Asset;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -61,6 +61,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Sync extra asking for every location in the location table to be refreshed in one run,
+    // instead of only the preferred location.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS =
+            "com.example.android.sunshine.app.SYNC_ALL_LOCATIONS";
+    // Sync extra asking for the forecasts to be read back from the response cache instead of the
+    // network, to rebuild the weather table after it was wiped.
+    public static final String SYNC_EXTRAS_REPLAY_CACHE =
+            "com.example.android.sunshine.app.SYNC_REPLAY_CACHE";
+    // How many forecasts we fetch at the same time when syncing every location
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    // How long a single location's fetch may take to connect, and to wait on each read
+    private static final int LOCATION_FETCH_TIMEOUT_MILLIS = 30 * 1000;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
@@ -89,277 +101,719 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
 
+    // Where the forecasts come from.  Benchmarks point this at a local stand-in for the server.
+    private static volatile WeatherSource sWeatherSource = new OpenWeatherMapSource();
+    // Benchmarks turn this off, so their syncs don't reschedule the periodic sync or update the
+    // notification, the widgets, Muzei or a watch
+    private static volatile boolean sUpdatesApp = true;
+
+    private final SyncPipeline mPipeline = new SyncPipeline();
+    private final ForecastResponseCache mResponseCache;
+    private final FetchBackoff mBackoff;
+    // Metrics row of the latest sync, which the next fan-out to run reports its time to
+    private volatile Uri mFanOutMetricsUri;
+    // Whether any sync since the last fan-out changed the forecast
+    private final AtomicBoolean mFanOutChanged = new AtomicBoolean();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
-
+        mResponseCache = new ForecastResponseCache(context);
+        mBackoff = new FetchBackoff(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        // Requests for this location made while we fetch it would only fetch it again
+        SyncCoalescer.onSyncStarted(preferredLocation);
+        try {
+            performSync(preferredLocation, extras, syncResult);
+        } finally {
+            SyncCoalescer.onSyncFinished();
+        }
+    }
+
+    private void performSync(String preferredLocation, Bundle extras, SyncResult syncResult) {
+
+        boolean replay = extras.getBoolean(SYNC_EXTRAS_REPLAY_CACHE, false);
+        long nextAttempt = mBackoff.getNextAttemptTime();
+        if (!replay && nextAttempt != 0) {
+            // The server has been failing, so don't spend the radio on it yet.  Telling the
+            // SyncManager when to come back keeps its own retries from hammering it either.
+            Log.d(LOG_TAG, (mBackoff.isCircuitOpen() ? "Circuit open" : "Backing off")
+                    + ", skipping sync for " + (nextAttempt - System.currentTimeMillis()) / 1000 + "s");
+            syncResult.delayUntil = nextAttempt / 1000;
+            return;
+        }
+
+        SyncMetrics metrics = new SyncMetrics();
+        LocationForecast preferredForecast = null;
+        List<LocationForecast> forecasts;
+        if (replay || extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            List<String> locationSettings = getTrackedLocations(preferredLocation);
+            if (replay) {
+                // The location table may have been wiped along with the weather, so take the
+                // locations from the cache too
+                for (String locationSetting : mResponseCache.getLocationSettings()) {
+                    if (!locationSettings.contains(locationSetting)) {
+                        locationSettings.add(locationSetting);
+                    }
+                }
+            }
+            forecasts = fetchForecasts(locationSettings, replay, metrics);
+            for (LocationForecast forecast : forecasts) {
+                if (forecast.locationSetting.equals(preferredLocation)) {
+                    preferredForecast = forecast;
+                }
+            }
+        } else {
+            mPipeline.fetch.enqueue();
+            preferredForecast = fetchLocation(preferredLocation, false, metrics);
+            forecasts = Collections.singletonList(preferredForecast);
+        }
+
+        long persistStart = mPipeline.persist.begin();
+        int changedDays = storeForecasts(forecasts);
+        mPipeline.persist.end(persistStart);
+        metrics.addDb(SystemClock.elapsedRealtime() - persistStart);
+
+        updateBackoff(forecasts, syncResult);
+
+        // The forecast is in the database, so the sync is done as far as the UI is concerned.
+        if (preferredForecast != null && preferredForecast.status != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(getContext(), preferredForecast.status, preferredForecast.error);
+        }
+        if (preferredForecast != null && preferredForecast.status == LOCATION_STATUS_OK) {
+            // The provider counts changes over everything written at once, which for several
+            // locations is as good a measure of how much the forecast moves.
+            int days = 0;
+            for (LocationForecast forecast : forecasts) {
+                if (forecast.collector != null) {
+                    days += forecast.collector.values.size();
+                }
+            }
+            // A forecast that came back Not Modified, or was still fresh in the response cache,
+            // wasn't looked at, so it says nothing about how much the forecast moves.  Those
+            // syncs leave the interval as it is.
+            if (days > 0 && sUpdatesApp) {
+                SyncScheduler.onSyncComplete(getContext(), (float) changedDays / days);
+            }
+        }
+        Uri metricsUri = metrics.save(getContext(), preferredForecast != null
+                ? preferredForecast.status : LOCATION_STATUS_UNKNOWN);
+        // Everything else that shows the forecast is updated off the sync thread, so loading
+        // the notification icon doesn't hold the sync up.
+        if (sUpdatesApp) {
+            if (changedDays > 0) {
+                mFanOutChanged.set(true);
+            }
+            mFanOutMetricsUri = metricsUri;
+            mPipeline.submitFanOut(new Runnable() {
+                @Override
+                public void run() {
+                    // A fan-out that was already queued covers this sync too, so it reports to
+                    // the latest sync's row
+                    Uri fanOutMetricsUri = mFanOutMetricsUri;
+                    long start = SystemClock.elapsedRealtime();
+                    // The widgets and Muzei only need telling when the forecast changed
+                    boolean changed = mFanOutChanged.getAndSet(false);
+                    if (changed) {
+                        updateWidgets();
+                        updateMuzei();
+                    }
+                    // Whether or not the forecast changed, the day's notification may be due.  It
+                    // limits itself to one a day.
+                    notifyWeather();
+                    // Last, since it waits on the image host.  The widgets and the list load their
+                    // art on their own, and find it on disk once this is done.
+                    if (changed) {
+                        prefetchArtwork();
+                    }
+                    if (fanOutMetricsUri != null) {
+                        SyncMetrics.saveFanOut(getContext(), fanOutMetricsUri,
+                                SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            });
+        }
+        Log.d(LOG_TAG, "Sync pipeline: " + mPipeline);
+        Log.d(LOG_TAG, "Response cache: " + mResponseCache);
+        Log.d(LOG_TAG, "Sync requests: " + SyncCoalescer.asString());
+    }
+
+    /**
+     * Reports failed fetches to the SyncManager and moves the backoff on.  A sync counts as a
+     * success if the server answered for any location, and as a failure if it didn't answer
+     * for any.
+     */
+    private void updateBackoff(List<LocationForecast> forecasts, SyncResult syncResult) {
+        boolean answered = false;
+        boolean failed = false;
+        for (LocationForecast forecast : forecasts) {
+            switch (forecast.status) {
+                case LOCATION_STATUS_OK:
+                case LOCATION_STATUS_INVALID:
+                    // An unknown location is still an answer from the server
+                    answered = true;
+                    break;
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    failed = true;
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    failed = true;
+                    break;
+            }
+        }
+        if (answered) {
+            mBackoff.onSuccess();
+        } else if (failed) {
+            syncResult.delayUntil = mBackoff.onFailure() / 1000;
+        }
+    }
+
+    /**
+     * Fetch and parse the daily forecast for one location, and then its 3-hourly forecast if the
+     * server is answering.
+     */
+    private LocationForecast fetchLocation(String locationQuery, boolean replay,
+                                           SyncMetrics metrics) {
+        LocationForecast forecast = fetchForecast(locationQuery, replay, metrics);
+        // The 3-hourly forecast isn't kept in the response cache, so there's nothing to replay
+        if (!replay && !forecast.upToDate && forecast.status == LOCATION_STATUS_OK) {
+            forecast.hourly = fetchHourlyForecast(locationQuery, metrics);
+        }
+        return forecast;
+    }
+
+    /**
+     * Fetch and parse the forecast for one location.  Nothing is written to the database here,
+     * so this can run for several locations at once.
+     *
+     * @param replay read the forecast from the response cache whatever its age, only going to
+     *               the network if there is nothing cached
+     */
+    private LocationForecast fetchForecast(String locationQuery, boolean replay,
+                                           SyncMetrics metrics) {
+        LocationForecast forecast = new LocationForecast(locationQuery);
+        long fetchStart = mPipeline.fetch.dequeue();
+        long parseStart = 0;
+
+        if (replay || mResponseCache.isFresh(locationQuery)) {
+            mPipeline.fetch.end(fetchStart);
+            if (!replay && hasStoredForecast(locationQuery)) {
+                // We stored this very response a few minutes ago, so there's nothing to do
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " is still fresh");
+                forecast.status = LOCATION_STATUS_OK;
+                forecast.upToDate = true;
+                return forecast;
+            }
+            if (readCachedForecast(forecast, metrics)) {
+                return forecast;
+            }
+            // Nothing usable in the cache, so go to the network after all
+            fetchStart = mPipeline.fetch.begin();
+        }
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        InputStream inputStream = null;
+        ForecastResponseCache.Editor cacheEditor = null;
+        SyncMetrics.DownloadStream download = null;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
+            // Create the request for the forecast, and open the connection
+            urlConnection = sWeatherSource.openDailyForecast(locationQuery);
+            urlConnection.setConnectTimeout(LOCATION_FETCH_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(LOCATION_FETCH_TIMEOUT_MILLIS);
+
+            // If we still hold today's forecast for this location, only ask for it again
+            // if it has changed since we stored it.
+            ForecastValidators validators = hasStoredForecast(locationQuery)
+                    ? ForecastValidators.load(getContext(), locationQuery) : null;
+            if (validators != null) {
+                validators.applyTo(urlConnection);
+            }
+            long connectStart = SystemClock.elapsedRealtime();
             urlConnection.connect();
+            long connectMillis = SystemClock.elapsedRealtime() - connectStart;
+            int responseCode = urlConnection.getResponseCode();
+            metrics.addFetch(connectMillis, SystemClock.elapsedRealtime() - connectStart);
+
+            // Everything from here on is reading and parsing the body
+            mPipeline.fetch.end(fetchStart);
+            parseStart = mPipeline.parse.begin();
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed upstream, so there is nothing to parse, store or tell anyone about.
+                Log.d(LOG_TAG, "Forecast not modified for " + locationQuery);
+                mResponseCache.touch(locationQuery);
+                forecast.status = LOCATION_STATUS_OK;
+                return forecast;
+            }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            // Parse the forecast straight off the connection instead of reading the whole
+            // response into a String first.  It is copied into the response cache on the way.
+            inputStream = urlConnection.getInputStream();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
+                return forecast;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            download = new SyncMetrics.DownloadStream(inputStream);
+            cacheEditor = mResponseCache.edit(locationQuery);
+            inputStream = cacheEditor.tee(download);
+            // The server's first day is today
+            getWeatherDataFromStream(inputStream, forecast, WeatherCalendar.getJulianToday());
+            if (forecast.collector != null) {
+                forecast.validators = ForecastValidators.fromResponse(urlConnection);
+                cacheEditor.commit();
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            forecast.status = LOCATION_STATUS_SERVER_DOWN;
+            forecast.error = e.toString();
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            forecast.status = LOCATION_STATUS_SERVER_INVALID;
+            forecast.error = e.toString();
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (cacheEditor != null) {
+                // Does nothing if the response was committed
+                cacheEditor.abort();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (parseStart != 0) {
+                mPipeline.parse.end(parseStart);
+                metrics.addParse(SystemClock.elapsedRealtime() - parseStart, download);
+            } else {
+                mPipeline.fetch.end(fetchStart);
+            }
         }
-        return;
+        return forecast;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Fetch and parse the 3-hourly forecast for one location.  A failure here only costs the
+     * 3-hourly points, so it doesn't change the location's status or the backoff.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the points, or null if they couldn't be fetched
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    private HourlyValuesCollector fetchHourlyForecast(String locationQuery, SyncMetrics metrics) {
+        HttpURLConnection urlConnection = null;
+        SyncMetrics.DownloadStream download = null;
+        long parseStart = 0;
+        try {
+            urlConnection = sWeatherSource.openHourlyForecast(locationQuery);
+            urlConnection.setConnectTimeout(LOCATION_FETCH_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(LOCATION_FETCH_TIMEOUT_MILLIS);
+            urlConnection.connect();
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "No 3-hourly forecast for " + locationQuery + ": "
+                        + urlConnection.getResponseCode());
+                return null;
+            }
 
-        final String OWM_MESSAGE_CODE = "cod";
+            parseStart = SystemClock.elapsedRealtime();
+            download = new SyncMetrics.DownloadStream(urlConnection.getInputStream());
+            HourlyValuesCollector collector = new HourlyValuesCollector();
+            if (HourlyForecastParser.parse(download, collector) != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            return collector;
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error fetching the 3-hourly forecast for " + locationQuery, e);
+            return null;
+        } finally {
+            if (download != null) {
+                try {
+                    download.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (parseStart != 0) {
+                metrics.addParse(SystemClock.elapsedRealtime() - parseStart, download);
+            }
+        }
+    }
 
+    /**
+     * Parse the forecast for the location from the response cache.  The response's first day
+     * is the day it was fetched on, and the days before today are dropped.
+     *
+     * @return true if there was a cached response and it still holds days from today on
+     */
+    private boolean readCachedForecast(LocationForecast forecast, SyncMetrics metrics) {
+        long parseStart = mPipeline.parse.begin();
+        ForecastResponseCache.CachedResponse inputStream = null;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            inputStream = mResponseCache.open(forecast.locationSetting);
+            if (inputStream == null) {
+                return false;
+            }
+            getWeatherDataFromStream(inputStream, forecast,
+                    WeatherCalendar.getJulianDay(inputStream.getFetchTime()));
+            Log.d(LOG_TAG, "Read the forecast for " + forecast.locationSetting + " from the cache");
+            if (forecast.collector != null && forecast.collector.values.isEmpty()) {
+                // Every day it holds is already in the past
+                forecast.collector = null;
+                forecast.status = LOCATION_STATUS_UNKNOWN;
+            }
+            return forecast.collector != null;
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error reading the cached forecast", e);
+            return false;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            mPipeline.parse.end(parseStart);
+            metrics.addParse(SystemClock.elapsedRealtime() - parseStart, null);
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Fetch the forecasts for several locations on a bounded pool of worker threads.
+     *
+     * @return one result per location, in the same order.  Locations that didn't finish in time
+     * are reported as LOCATION_STATUS_SERVER_DOWN.
+     */
+    private List<LocationForecast> fetchForecasts(List<String> locationSettings,
+                                                  final boolean replay,
+                                                  final SyncMetrics metrics) {
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(locationSettings.size());
+        if (locationSettings.isEmpty()) {
+            return forecasts;
+        }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        int poolSize = Math.min(MAX_PARALLEL_FETCHES, locationSettings.size());
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        List<Future<LocationForecast>> futures =
+                new ArrayList<Future<LocationForecast>>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            mPipeline.fetch.enqueue();
+            futures.add(pool.submit(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() {
+                    return fetchLocation(locationSetting, replay, metrics);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        // Every location gets its own timeout, but they queue up behind each other on the pool,
+        // so the batch as a whole is given one timeout per round of fetches.
+        int rounds = (locationSettings.size() + poolSize - 1) / poolSize;
+        long deadline = SystemClock.elapsedRealtime() + rounds * (long) LOCATION_FETCH_TIMEOUT_MILLIS;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<LocationForecast> future = futures.get(i);
+            LocationForecast forecast;
+            try {
+                forecast = future.get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching forecast for " + locationSettings.get(i), e);
+                future.cancel(true);
+                forecast = new LocationForecast(locationSettings.get(i));
+                forecast.status = LOCATION_STATUS_SERVER_DOWN;
+                forecast.error = e.toString();
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "Interrupted while fetching forecasts", e);
+                future.cancel(true);
+                forecast = new LocationForecast(locationSettings.get(i));
+                Thread.currentThread().interrupt();
+            }
+            forecasts.add(forecast);
+        }
+        // Fetches that were cancelled before they started never leave the fetch queue themselves
+        mPipeline.fetch.drop(pool.shutdownNow().size());
+        return forecasts;
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * @return every location setting in the location table, with the preferred one first.
+     */
+    private List<String> getTrackedLocations(String preferredLocation) {
+        Set<String> locationSettings = new LinkedHashSet<String>();
+        locationSettings.add(preferredLocation);
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return new ArrayList<String>(locationSettings);
+    }
 
-                double high;
-                double low;
+    /**
+     * Read the forecast from the server response.
+     *
+     * Days are turned into ContentValues as the {@link ForecastParser} emits them, so we never
+     * hold the raw response or a JSON object tree.
+     */
+    private void getWeatherDataFromStream(InputStream forecastStream,
+                                          LocationForecast forecast, int julianStartDay)
+            throws IOException, JSONException {
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // we start at the day returned by local time, on the day the response was fetched.
+        // Otherwise this is a mess.
+        WeatherValuesCollector collector = new WeatherValuesCollector(julianStartDay,
+                WeatherCalendar.getJulianToday());
+        int messageCode = ForecastParser.parse(forecastStream, collector);
+
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                forecast.status = LOCATION_STATUS_INVALID;
+                return;
+            default:
+                forecast.status = LOCATION_STATUS_SERVER_DOWN;
+                forecast.error = "Server answered " + messageCode;
+                return;
+        }
 
-                String description;
-                int weatherId;
+        if (collector.cityName == null) {
+            throw new JSONException("Forecast is missing the " + ForecastParser.OWM_CITY);
+        }
+        forecast.collector = collector;
+        forecast.status = LOCATION_STATUS_OK;
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    /**
+     * Store the forecasts of one or more locations as a single new forecast window, which the
+     * provider diffs against what it has and writes in one transaction with one change
+     * notification.
+     *
+     * @return the number of days that were new or changed
+     */
+    private int storeForecasts(List<LocationForecast> forecasts) {
+        List<ContentValues> window = new ArrayList<ContentValues>();
+        List<ContentValues> hourlyWindow = new ArrayList<ContentValues>();
+        for (LocationForecast forecast : forecasts) {
+            WeatherValuesCollector collector = forecast.collector;
+            if (collector == null || collector.values.isEmpty()) {
+                continue;
+            }
+            long locationId = addLocation(forecast.locationSetting, collector.cityName,
+                    collector.cityLatitude, collector.cityLongitude);
+            for (ContentValues weatherValues : collector.values) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            window.addAll(collector.values);
+            if (forecast.hourly != null) {
+                for (ContentValues hourlyValues : forecast.hourly.values) {
+                    hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+                }
+                hourlyWindow.addAll(forecast.hourly.values);
+            }
+        }
+        if (!hourlyWindow.isEmpty()) {
+            getContext().getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                    hourlyWindow.toArray(new ContentValues[hourlyWindow.size()]));
+        }
+        if (window.isEmpty()) {
+            return 0;
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+        // add to database, deleting old data so we don't build up an endless history
+        ContentValues[] cvArray = new ContentValues[window.size()];
+        window.toArray(cvArray);
+        int changedDays = getContext().getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherWindowUri(), cvArray);
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.validators != null) {
+                forecast.validators.save(getContext(), forecast.locationSetting);
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + window.size() + " days stored for " + forecasts.size()
+                + " locations, " + changedDays + " days changed");
+        return changedDays;
+    }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * @return true if the database holds forecast data from today onwards for the location.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * The result of fetching one location's forecast.  It is kept apart from storing the
+     * forecast so that several locations can be written together.
+     */
+    static class LocationForecast {
+        final String locationSetting;
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        // Only set when there is a new forecast to store
+        WeatherValuesCollector collector;
+        ForecastValidators validators;
+        // Only set when the 3-hourly forecast could be fetched too
+        HourlyValuesCollector hourly;
+        // Set when the stored forecast was fetched so recently that nothing was fetched now
+        boolean upToDate;
+        // What went wrong, when the status is an error we know more about
+        String error;
+
+        LocationForecast(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Builds the weather ContentValues for each day as the parser hands it over.  The location
+     * key is filled in when the forecast is stored.
+     */
+    static class WeatherValuesCollector implements ForecastParser.Listener {
+        final Vector<ContentValues> values = new Vector<ContentValues>(14);
+        final int julianStartDay;
+        // Days before this one are already over, and aren't kept
+        final int julianFirstDay;
+
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        WeatherValuesCollector(int julianStartDay, int julianFirstDay) {
+            this.julianStartDay = julianStartDay;
+            this.julianFirstDay = julianFirstDay;
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
 
-                cVVector.add(weatherValues);
+        @Override
+        public void onDay(int index, ForecastParser.Day day) {
+            int julianDay = julianStartDay + index;
+            if (julianDay < julianFirstDay) {
+                return;
             }
+            ContentValues weatherValues = new ContentValues();
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherCalendar.getDayStart(julianDay));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            values.add(weatherValues);
+        }
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * Builds the 3-hourly ContentValues for each point as the parser hands it over, converting
+     * every value to the fixed-point integer the table stores.
+     */
+    static class HourlyValuesCollector implements HourlyForecastParser.Listener {
+        final List<ContentValues> values = new ArrayList<ContentValues>(40);
+
+        @Override
+        public void onPoint(HourlyForecastParser.Point point) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+                    WeatherContract.HourlyEntry.toEpochHour(point.time * 1000));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, point.weatherId);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                    WeatherContract.HourlyEntry.toFixedPoint(point.temperature,
+                            WeatherContract.HourlyEntry.TEMP_SCALE));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                    WeatherContract.HourlyEntry.toFixedPoint(point.pressure,
+                            WeatherContract.HourlyEntry.PRESSURE_SCALE));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, point.humidity);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.HourlyEntry.toFixedPoint(point.windSpeed,
+                            WeatherContract.HourlyEntry.WIND_SPEED_SCALE));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                    (int) Math.round(point.windDirection));
+            values.add(hourlyValues);
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Downloads the art for every day of the preferred location's forecast.
+     */
+    private void prefetchArtwork() {
+        Context context = getContext();
+        if (Utility.usingLocalGraphics(context)) {
+            return;
         }
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        Utility.getPreferredLocation(context), System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return;
+        }
+        Set<Integer> weatherIds = new LinkedHashSet<Integer>();
+        while (cursor.moveToNext()) {
+            weatherIds.add(cursor.getInt(0));
+        }
+        cursor.close();
+        ArtworkPrefetcher.prefetch(context, weatherIds);
     }
 
     private void updateWidgets() {
@@ -409,80 +863,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     double low = cursor.getDouble(INDEX_MIN_TEMP);
                     String desc = cursor.getString(INDEX_SHORT_DESC);
 
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
+                    WeatherNotificationBuilder builder =
+                            new WeatherNotificationBuilder(context);
 
                     // Android wear
-
-                    Bitmap icon = BitmapFactory.decodeResource(resources, iconId);
-                    notifyAndroidWear(Utility.formatTemperature(context, low), Utility.formatTemperature(context, high), icon);
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
+                    notifyAndroidWear(Utility.formatTemperature(context, low),
+                            Utility.formatTemperature(context, high),
+                            builder.getWearIcon(weatherId));
 
                     NotificationManager mNotificationManager =
                             (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID,
+                            builder.build(weatherId, high, low, desc));
+                    Log.d(LOG_TAG, "Notification icons: "
+                            + NotificationIconCache.getInstance(context));
 
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
@@ -496,7 +891,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private void notifyAndroidWear(String min, String max, Bitmap icon) {
         Log.d(LOG_TAG, "notifyAndroidWear()");
-        icon = Bitmap.createScaledBitmap(icon, (int)getContext().getResources().getDimension(R.dimen.img_size), (int)getContext().getResources().getDimension(R.dimen.img_size), false);
 
         Asset asset = Utility.createAssetFromBitmap(icon);
         // Notify the andorid wear
@@ -520,44 +914,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        // Finally, insert location data into the database.  If the location setting is already
+        // there, the provider updates that row and hands back its id instead, without writing
+        // anything if the server sent the same name and coordinates as last time.
+        Uri insertedUri = getContext().getContentResolver().insert(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+                locationValues
+        );
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
         // Wait, that worked?  Yes!
-        return locationId;
+        return ContentUris.parseId(insertedUri);
     }
 
     /**
@@ -566,27 +944,70 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        Bundle extras = new Bundle();
+        if (context.getResources().getBoolean(R.bool.sync_all_locations)) {
+            extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Replaces the source of the forecasts for every sync from now on, for benchmarks and tests.
+     */
+    static void setWeatherSource(WeatherSource source) {
+        sWeatherSource = source;
+    }
+
+    /**
+     * Whether syncs go on to reschedule themselves and update everything that shows the
+     * forecast, once it is stored.  Benchmarks turn this off, so they only touch the database.
+     */
+    static void setUpdatesApp(boolean updatesApp) {
+        sUpdatesApp = updatesApp;
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately.  Calls that come in while the
+     * preferred location is already being synced, or in quick succession, are merged by
+     * {@link SyncCoalescer}.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncCoalescer.request(context);
+    }
+
+    /**
+     * Asks the SyncManager for an expedited sync right away.
+     * @param context The context used to access the account service
+     */
+    static void requestExpeditedSync(Context context) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * Helper method to have the sync adapter rebuild the weather table from the response cache,
+     * without going to the network for locations that have a cached response.
+     * @param context The context used to access the account service
+     */
+    public static void syncFromCache(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_REPLAY_CACHE, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -652,15 +1073,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Sets the location status in the provider's sync status record.  The provider keeps it in
+     * memory and writes it to disk in the background, and only tells observers when the status
+     * or the error changed.
+     * @param c Context to get the ContentResolver from.
      * @param locationStatus The IntDef value to set
+     * @param error What went wrong, or null
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    static private void setLocationStatus(Context c, @LocationStatus int locationStatus,
+                                          String error){
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncStatusEntry.COLUMN_STATUS, locationStatus);
+        values.put(WeatherContract.SyncStatusEntry.COLUMN_ERROR, error);
+        c.getContentResolver().update(WeatherContract.SyncStatusEntry.CONTENT_URI, values,
+                null, null);
     }
 }
\ No newline at end of file
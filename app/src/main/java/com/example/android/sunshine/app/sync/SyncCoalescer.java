@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Turns bursts of {@link SunshineSyncAdapter#syncImmediately(Context)} calls into as few
+ * expedited syncs as possible.
+ *
+ * A request for the location a running sync is already fetching joins that sync, and nothing
+ * new is requested.  Otherwise the request waits {@link #DEBOUNCE_MILLIS}, and any further
+ * requests in that time are merged into it.  A later request for a different location
+ * replaces a waiting one, since only the preferred location is synced.
+ *
+ * The sync runs in the same process as the rest of the app, so the state is only kept in
+ * memory.
+ */
+class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    static final long DEBOUNCE_MILLIS = 1000;
+
+    /**
+     * Sends a request once it has waited out the debounce.
+     */
+    interface Sender {
+        void send(Context context);
+    }
+
+    static final Sender EXPEDITED_SYNC = new Sender() {
+        @Override
+        public void send(Context context) {
+            SunshineSyncAdapter.requestExpeditedSync(context);
+        }
+    };
+
+    // Tests point this at a stand-in, so they don't start a real sync
+    private static volatile Sender sSender = EXPEDITED_SYNC;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    // Location setting of the sync that is running, or null
+    private static String sInFlightLocation;
+    // Location setting of the request waiting out the debounce, or null
+    private static String sPendingLocation;
+    private static Context sPendingContext;
+
+    private static int sRequestCount;
+    private static int sJoinedCount;
+    private static int sDebouncedCount;
+    private static int sSentCount;
+
+    private static final Runnable sSendPending = new Runnable() {
+        @Override
+        public void run() {
+            Context context;
+            synchronized (SyncCoalescer.class) {
+                if (sPendingLocation == null) {
+                    return;
+                }
+                context = sPendingContext;
+                sPendingLocation = null;
+                sPendingContext = null;
+                sSentCount++;
+            }
+            sSender.send(context);
+        }
+    };
+
+    private SyncCoalescer() {
+    }
+
+    /**
+     * Asks for an expedited sync of the preferred location, unless one is already running or
+     * about to be requested.
+     */
+    static synchronized void request(Context context) {
+        String location = Utility.getPreferredLocation(context);
+        sRequestCount++;
+        if (location.equals(sInFlightLocation)) {
+            sJoinedCount++;
+            Log.d(LOG_TAG, "Joining the running sync of " + location + ", " + asString());
+            return;
+        }
+        if (sPendingLocation != null) {
+            sDebouncedCount++;
+            sPendingLocation = location;
+            Log.d(LOG_TAG, "Merging into the waiting request, " + asString());
+            return;
+        }
+        sPendingLocation = location;
+        sPendingContext = context.getApplicationContext();
+        sHandler.postDelayed(sSendPending, DEBOUNCE_MILLIS);
+    }
+
+    static void setSender(Sender sender) {
+        sSender = sender;
+    }
+
+    static synchronized void onSyncStarted(String locationSetting) {
+        sInFlightLocation = locationSetting;
+    }
+
+    static synchronized void onSyncFinished() {
+        sInFlightLocation = null;
+    }
+
+    /**
+     * @return the number of requests that didn't cause a sync of their own
+     */
+    static synchronized int getMergedCount() {
+        return sJoinedCount + sDebouncedCount;
+    }
+
+    static synchronized int getSentCount() {
+        return sSentCount;
+    }
+
+    /**
+     * Drops any waiting request and clears the counters, for tests.
+     */
+    static synchronized void reset() {
+        sHandler.removeCallbacks(sSendPending);
+        sInFlightLocation = null;
+        sPendingLocation = null;
+        sPendingContext = null;
+        sRequestCount = 0;
+        sJoinedCount = 0;
+        sDebouncedCount = 0;
+        sSentCount = 0;
+    }
+
+    static synchronized String asString() {
+        return sRequestCount + " requests: " + sJoinedCount + " joined a running sync, "
+                + sDebouncedCount + " merged while waiting, " + sSentCount + " sent";
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * What one sync cost, collected as it runs and saved as a row of
+ * {@link WeatherContract.SyncMetricsEntry}.  Fetches for several locations can add to it at the
+ * same time.
+ */
+class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    private final long mStartTime = System.currentTimeMillis();
+
+    private int mLocations;
+    private long mBytesRead;
+    private long mConnectMillis;
+    private long mFirstByteMillis;
+    private long mDownloadMillis;
+    private long mParseMillis;
+    private long mDbMillis;
+
+    /**
+     * @param connectMillis   time to open the connection
+     * @param firstByteMillis time from opening the connection to having the response headers
+     */
+    synchronized void addFetch(long connectMillis, long firstByteMillis) {
+        mLocations++;
+        mConnectMillis += connectMillis;
+        mFirstByteMillis += firstByteMillis;
+    }
+
+    /**
+     * @param parseMillis how long reading and parsing the body took
+     * @param download    the body as read from the network, or null if it was read from the cache
+     */
+    synchronized void addParse(long parseMillis, DownloadStream download) {
+        if (download != null) {
+            long downloadMillis = download.getMillis();
+            mBytesRead += download.getBytesRead();
+            mDownloadMillis += downloadMillis;
+            parseMillis -= downloadMillis;
+        }
+        mParseMillis += Math.max(0, parseMillis);
+    }
+
+    synchronized void addDb(long dbMillis) {
+        mDbMillis += dbMillis;
+    }
+
+    /**
+     * Saves the sync's row.
+     *
+     * @return the Uri of the row, to add the fan-out time to later
+     */
+    synchronized Uri save(Context context, @SunshineSyncAdapter.LocationStatus int status) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_START_TIME, mStartTime);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_APP_VERSION, BuildConfig.VERSION_CODE);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_STATUS, status);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_BYTES_READ, mBytesRead);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_CONNECT_TIME, mConnectMillis);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_FIRST_BYTE_TIME, mFirstByteMillis);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_DOWNLOAD_TIME, mDownloadMillis);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_PARSE_TIME, mParseMillis);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_DB_TIME, mDbMillis);
+        Log.d(LOG_TAG, "Sync metrics: " + values);
+        return context.getContentResolver().insert(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Adds the fan-out time to a sync's row once the fan-out has finished.
+     */
+    static void saveFanOut(Context context, Uri metricsUri, long fanOutMillis) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_FAN_OUT_TIME, fanOutMillis);
+        context.getContentResolver().update(WeatherContract.SyncMetricsEntry.CONTENT_URI, values,
+                WeatherContract.SyncMetricsEntry._ID + " = ?",
+                new String[]{metricsUri.getLastPathSegment()});
+    }
+
+    /**
+     * Counts the bytes read from the network, and the time spent waiting for them.
+     */
+    static class DownloadStream extends FilterInputStream {
+        private long mBytesRead;
+        private long mNanos;
+
+        DownloadStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mBytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytesRead += read;
+            }
+            return read;
+        }
+
+        long getBytesRead() {
+            return mBytesRead;
+        }
+
+        long getMillis() {
+            return mNanos / 1000000;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages a sync goes through: fetch, parse, persist and fan-out.
+ *
+ * Fetch, parse and persist run on the sync thread (fetch and parse on the fetch pool when
+ * several locations are synced).  Fan-out (widgets, Muzei, the notification and Android Wear)
+ * runs on its own single thread, so the sync is finished as soon as the forecast is in the
+ * database, no matter how long loading the notification icon takes.
+ *
+ * Every stage keeps its timings and how many items are waiting for it, so they can be checked
+ * with {@link #toString()} in the log after each sync.
+ */
+class SyncPipeline {
+    private final String LOG_TAG = SyncPipeline.class.getSimpleName();
+
+    /**
+     * Timing and queue depth for one stage.  Safe to use from any thread.
+     */
+    static class Stage {
+        final String name;
+
+        private final AtomicInteger mQueueDepth = new AtomicInteger();
+        private int mRuns;
+        private long mLastMillis;
+        private long mMaxMillis;
+        private long mTotalMillis;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * An item is waiting for this stage.
+         */
+        void enqueue() {
+            mQueueDepth.incrementAndGet();
+        }
+
+        /**
+         * The stage has started on an item that was {@link #enqueue() enqueued}.
+         *
+         * @return the start time to hand back to {@link #end(long)}
+         */
+        long dequeue() {
+            mQueueDepth.decrementAndGet();
+            return begin();
+        }
+
+        /**
+         * The stage has started on an item that never had to wait for it.
+         *
+         * @return the start time to hand back to {@link #end(long)}
+         */
+        long begin() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Queued items were given up on before the stage started on them.
+         */
+        void drop(int count) {
+            mQueueDepth.addAndGet(-count);
+        }
+
+        synchronized void end(long startMillis) {
+            long elapsed = SystemClock.elapsedRealtime() - startMillis;
+            mRuns++;
+            mLastMillis = elapsed;
+            mMaxMillis = Math.max(mMaxMillis, elapsed);
+            mTotalMillis += elapsed;
+        }
+
+        int getQueueDepth() {
+            return mQueueDepth.get();
+        }
+
+        synchronized int getRuns() {
+            return mRuns;
+        }
+
+        synchronized long getLastMillis() {
+            return mLastMillis;
+        }
+
+        synchronized long getMaxMillis() {
+            return mMaxMillis;
+        }
+
+        synchronized long getAverageMillis() {
+            return mRuns == 0 ? 0 : mTotalMillis / mRuns;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + ": last " + mLastMillis + "ms, avg " + getAverageMillis()
+                    + "ms, max " + mMaxMillis + "ms over " + mRuns + " runs, "
+                    + mQueueDepth.get() + " queued";
+        }
+    }
+
+    // Connecting and waiting for the response headers
+    final Stage fetch = new Stage("fetch");
+    // Reading the body.  The parser streams, so this includes the time spent on the network.
+    final Stage parse = new Stage("parse");
+    // Writing the forecast into the database
+    final Stage persist = new Stage("persist");
+    // Telling widgets, Muzei, the notification and Android Wear
+    final Stage fanOut = new Stage("fan-out");
+
+    private final ExecutorService mFanOutExecutor = Executors.newSingleThreadExecutor();
+    // Set while a fan-out is queued but hasn't started yet
+    private final AtomicBoolean mFanOutPending = new AtomicBoolean();
+
+    /**
+     * Runs the fan-out on its own thread.  If one is already waiting to run, it will pick up
+     * the latest data anyway, so another one isn't queued.
+     */
+    void submitFanOut(final Runnable consumers) {
+        if (!mFanOutPending.compareAndSet(false, true)) {
+            Log.d(LOG_TAG, "Fan-out already queued");
+            return;
+        }
+        fanOut.enqueue();
+        mFanOutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFanOutPending.set(false);
+                long start = fanOut.dequeue();
+                try {
+                    consumers.run();
+                } catch (RuntimeException e) {
+                    // Don't let one bad consumer take the fan-out thread down with it
+                    Log.e(LOG_TAG, "Error during fan-out", e);
+                } finally {
+                    fanOut.end(start);
+                    Log.d(LOG_TAG, fanOut.toString());
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return fetch + "; " + parse + "; " + persist + "; " + fanOut;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Picks how long to wait before the next periodic sync, instead of always syncing every
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL}.
+ *
+ * The interval starts from how much the last sync changed the stored forecast: the less it
+ * changes, the longer we wait.  It is stretched further when nothing shows the forecast (no
+ * widgets, and no watch has asked for it lately), and pulled in so that we sync in time for the
+ * first notification of the day.  While the server pushes forecast changes, see
+ * {@link ForecastDeltaService}, polling is stretched further still.
+ *
+ * The chosen interval and the reasons for it are logged and kept in preferences, see
+ * {@link #getInterval(Context)} and {@link #getReason(Context)}.
+ */
+class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_REASON = "reason";
+    private static final String KEY_LAST_WEAR_REQUEST = "last_wear_request";
+    private static final String KEY_LAST_PUSH = "last_push";
+
+    // Never sync more often than every hour, or less often than every 12 hours
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // If at least this much of the forecast changed, it's worth checking back sooner
+    static final float VOLATILE_CHANGE_FRACTION = 0.5f;
+
+    // A watch that asked for the weather within this long is treated as still showing it
+    private static final long WEAR_ACTIVE_MILLIS = 1000 * 60 * 60 * 24;
+    // A server that pushed a forecast delta within this long is treated as still pushing them
+    private static final long PUSH_ACTIVE_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Remembers that a watch asked for the weather.
+     */
+    static void recordWearRequest(Context context) {
+        getPrefs(context).edit()
+                .putLong(KEY_LAST_WEAR_REQUEST, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Remembers that the server pushed a forecast delta.
+     */
+    static void recordPush(Context context) {
+        getPrefs(context).edit()
+                .putLong(KEY_LAST_PUSH, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return the interval in seconds chosen after the last sync
+     */
+    static int getInterval(Context context) {
+        return getPrefs(context).getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @return why the current interval was chosen, or null before the first sync has finished
+     */
+    static String getReason(Context context) {
+        return getPrefs(context).getString(KEY_REASON, null);
+    }
+
+    /**
+     * Chooses the next sync interval after a successful sync and, if it changed, reschedules the
+     * periodic sync.
+     *
+     * @param changedFraction how much of the stored forecast the sync changed, from 0 (nothing)
+     *                        to 1 (every day)
+     */
+    static void onSyncComplete(Context context, float changedFraction) {
+        SharedPreferences prefs = getPrefs(context);
+        int previousInterval = prefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+        StringBuilder reason = new StringBuilder();
+
+        int interval;
+        if (changedFraction >= VOLATILE_CHANGE_FRACTION) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL / 2;
+            reason.append("forecast volatile (").append(percent(changedFraction)).append(" changed)");
+        } else if (changedFraction > 0) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reason.append("forecast changed a little (").append(percent(changedFraction))
+                    .append(" changed)");
+        } else {
+            // Back off for as long as the forecast keeps coming back the same
+            interval = Math.max(previousInterval, SunshineSyncAdapter.SYNC_INTERVAL) * 2;
+            reason.append("forecast unchanged");
+        }
+
+        if (hasActiveWidgets(context) || hasActiveWatch(prefs)) {
+            // Someone can see the forecast at a glance, so don't let it go too stale
+            interval = Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+            reason.append(", forecast on a widget or watch");
+        } else {
+            interval *= 2;
+            reason.append(", no widget or watch showing the forecast");
+        }
+
+        if (isPushActive(prefs)) {
+            // The server tells us about changes itself, so polling only has to catch what it
+            // missed
+            interval *= 2;
+            reason.append(", server pushing changes");
+        }
+
+        long untilNotification = getMillisUntilNotification(context);
+        if (untilNotification > 0 && untilNotification < interval * 1000L) {
+            interval = (int) (untilNotification / 1000);
+            reason.append(", notification due in ").append(untilNotification / (60 * 1000))
+                    .append(" min");
+        }
+
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        String reasonString = reason.toString();
+        Log.d(LOG_TAG, "Next sync in " + interval / 60 + " min: " + reasonString);
+
+        prefs.edit()
+                .putInt(KEY_INTERVAL, interval)
+                .putString(KEY_REASON, reasonString)
+                .apply();
+        if (interval != previousInterval) {
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+        }
+    }
+
+    private static boolean hasActiveWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private static boolean hasActiveWatch(SharedPreferences prefs) {
+        long lastWearRequest = prefs.getLong(KEY_LAST_WEAR_REQUEST, 0);
+        return System.currentTimeMillis() - lastWearRequest < WEAR_ACTIVE_MILLIS;
+    }
+
+    private static boolean isPushActive(SharedPreferences prefs) {
+        long lastPush = prefs.getLong(KEY_LAST_PUSH, 0);
+        return System.currentTimeMillis() - lastPush < PUSH_ACTIVE_MILLIS;
+    }
+
+    /**
+     * @return how long until the next daily notification can be shown, 0 if it is already due,
+     * or -1 if notifications are turned off
+     */
+    private static long getMillisUntilNotification(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean displayNotifications = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return -1;
+        }
+        long lastNotification = prefs.getLong(context.getString(R.string.pref_last_notification), 0);
+        return Math.max(0, lastNotification + DAY_IN_MILLIS - System.currentTimeMillis());
+    }
+
+    private static String percent(float fraction) {
+        return Math.round(fraction * 100) + "%";
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
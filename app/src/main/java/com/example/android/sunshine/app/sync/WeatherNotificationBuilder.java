@@ -0,0 +1,163 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.ArtworkPrefetcher;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Renders the daily weather notification and the icon sent to Android Wear.
+ *
+ * Loading the art can block on the network, so this only runs on the fan-out thread, never on
+ * the sync thread.  The icons come out of {@link NotificationIconCache} already scaled, so a
+ * picture the notification has shown before is neither downloaded nor decoded again.
+ */
+class WeatherNotificationBuilder {
+    private static final String LOG_TAG = WeatherNotificationBuilder.class.getSimpleName();
+
+    private final Context mContext;
+    private final NotificationIconCache mIconCache;
+
+    WeatherNotificationBuilder(Context context) {
+        this(context, NotificationIconCache.getInstance(context));
+    }
+
+    WeatherNotificationBuilder(Context context, NotificationIconCache iconCache) {
+        mContext = context;
+        mIconCache = iconCache;
+    }
+
+    Notification build(int weatherId, double high, double low, String desc) {
+        Resources resources = mContext.getResources();
+        String title = mContext.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(mContext.getString(R.string.format_notification),
+                desc,
+                Utility.formatTemperature(mContext, high),
+                Utility.formatTemperature(mContext, low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(mContext)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(Utility.getIconResourceForWeatherCondition(weatherId))
+                        .setLargeIcon(getLargeIcon(weatherId))
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(mContext, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(mContext);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        builder.setContentIntent(resultPendingIntent);
+        return builder.build();
+    }
+
+    /**
+     * @return the art for the weather condition, scaled to the notification's large icon
+     */
+    Bitmap getLargeIcon(int weatherId) {
+        Resources resources = mContext.getResources();
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int width = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int height = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        String key = NotificationIconCache.getKey(artUrl, width, height);
+        Bitmap icon = mIconCache.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        FutureTarget<Bitmap> target = Glide.with(mContext)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .listener(ArtworkPrefetcher.<Bitmap>trackRender(artUrl))
+                .fitCenter()
+                .into(width, height);
+        try {
+            // Glide hands the bitmap back to its pool once the target is cleared, so keep a copy
+            Bitmap art = target.get();
+            icon = art.copy(art.getConfig() != null ? art.getConfig() : Bitmap.Config.ARGB_8888,
+                    false);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+        } finally {
+            Glide.clear(target);
+        }
+        if (icon == null) {
+            // Not cached, so the download is tried again for the next notification
+            return scaleToFit(BitmapFactory.decodeResource(resources, artResourceId),
+                    width, height);
+        }
+        mIconCache.put(key, icon);
+        return icon;
+    }
+
+    /**
+     * @return the icon for the weather condition, scaled to the size Android Wear shows it at
+     */
+    Bitmap getWearIcon(int weatherId) {
+        Resources resources = mContext.getResources();
+        int size = (int) resources.getDimension(R.dimen.img_size);
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        String key = NotificationIconCache.getKey(resources.getResourceName(iconId), size, size);
+        Bitmap icon = mIconCache.get(key);
+        if (icon == null) {
+            icon = Bitmap.createScaledBitmap(BitmapFactory.decodeResource(resources, iconId),
+                    size, size, false);
+            mIconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap, int width, int height) {
+        float scale = Math.min((float) width / bitmap.getWidth(),
+                (float) height / bitmap.getHeight());
+        if (scale >= 1) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+    }
+}
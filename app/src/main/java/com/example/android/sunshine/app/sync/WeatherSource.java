@@ -0,0 +1,25 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Where the sync gets its forecasts from.
+ *
+ * A source only builds the requests.  The sync adapter connects them and reads the responses,
+ * so conditional requests, the response cache, the metrics and the backoff all work the same
+ * whatever the source is.  The responses have to be in the OpenWeatherMap JSON format that
+ * {@link ForecastParser} and {@link HourlyForecastParser} read.
+ */
+interface WeatherSource {
+
+    /**
+     * @return a request, not yet connected, for the daily forecast of the location from today
+     */
+    HttpURLConnection openDailyForecast(String locationQuery) throws IOException;
+
+    /**
+     * @return a request, not yet connected, for the 3-hourly forecast of the location
+     */
+    HttpURLConnection openHourlyForecast(String locationQuery) throws IOException;
+}